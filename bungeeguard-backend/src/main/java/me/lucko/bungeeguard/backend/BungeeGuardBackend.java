@@ -25,6 +25,7 @@
 
 package me.lucko.bungeeguard.backend;
 
+import java.nio.file.Path;
 import java.util.List;
 
 public interface BungeeGuardBackend {
@@ -33,5 +34,19 @@ public interface BungeeGuardBackend {
 
     List<String> getTokens();
 
+    String getString(String key, String def);
+
+    boolean getBoolean(String key, boolean def);
+
+    int getInt(String key, int def);
+
+    List<String> getStringList(String key);
+
+    void logInfo(String message);
+
+    void logWarning(String message);
+
+    Path getDataDirectory();
+
     void reloadConfig();
 }
@@ -0,0 +1,310 @@
+/*
+ * This file is part of BungeeGuard, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.bungeeguard.backend;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A registry of short-lived tokens, which are allowed in addition to the
+ * static tokens in the config.
+ *
+ * Tokens are registered by dropping files into a directory watched by the
+ * plugin. Each line of a file takes the form {@code <token> <ttl-seconds>}, where
+ * a ttl of 0 revokes the token. Files are deleted once they have been read.
+ * Files whose name starts with '.' are ignored, so they can be written under a
+ * temporary name and then moved into place.
+ *
+ * Registered tokens are held in a concurrent map, so {@link #isAllowed(String)}
+ * never blocks. Expiry is handled by a {@link TimingWheel} which is advanced
+ * once per second, so adding or removing a token never requires the set to
+ * be rebuilt.
+ */
+public class EphemeralTokenRegistry {
+    private static final long TICK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final BungeeGuardBackend plugin;
+    private final Map<String, Registration> tokens = new ConcurrentHashMap<>();
+    private final Map<ByteBuffer, Registration> compactTokens = new ConcurrentHashMap<>();
+    private final Queue<Registration> pending = new ConcurrentLinkedQueue<>();
+    private final long startNanos = System.nanoTime();
+
+    // only accessed by the scheduler thread
+    private final TimingWheel<Registration> wheel = new TimingWheel<>(0);
+    private final Set<Path> ignoredFiles = new HashSet<>();
+    private String lastDirectoryError;
+
+    private volatile Path directory;
+    private volatile long maxTtlSeconds;
+    private volatile ScheduledExecutorService scheduler; // modified whilst synchronized
+
+    private final LongAdder registered = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+
+    public EphemeralTokenRegistry(BungeeGuardBackend plugin) {
+        this.plugin = plugin;
+    }
+
+    public synchronized void load() {
+        if (!this.plugin.getBoolean("ephemeral-tokens.enabled", false)) {
+            shutdown();
+            this.directory = null;
+            this.tokens.clear();
+            this.compactTokens.clear();
+            return;
+        }
+
+        Path directory = this.plugin.getDataDirectory().resolve(this.plugin.getString("ephemeral-tokens.directory", "ephemeral-tokens"));
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            this.plugin.logWarning("Unable to create ephemeral token directory " + directory + ": " + e);
+        }
+        this.directory = directory;
+        this.maxTtlSeconds = Math.max(1, this.plugin.getInt("ephemeral-tokens.max-ttl-seconds", 86400));
+
+        if (this.scheduler == null) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "bungeeguard-ephemeral-tokens");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.scheduler.scheduleWithFixedDelay(this::tick, 0, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    public synchronized void shutdown() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Gets if ephemeral tokens are enabled.
+     *
+     * @return true if enabled
+     */
+    public boolean isEnabled() {
+        return this.directory != null;
+    }
+
+    /**
+     * Gets if a token is registered and has not expired.
+     *
+     * @param token the token
+     * @return true if allowed
+     */
+    public boolean isAllowed(String token) {
+        Registration registration = this.tokens.get(token);
+        return registration != null && registration.expiresAt - System.nanoTime() > 0;
+    }
+
+    /**
+     * Gets if a token, presented in its compact form, is registered and has not expired.
+     *
+     * @param compactToken the SHA-256 digest of the token
+     * @return true if allowed
+     */
+    public boolean isAllowedCompact(ByteBuffer compactToken) {
+        Registration registration = this.compactTokens.get(compactToken);
+        return registration != null && registration.expiresAt - System.nanoTime() > 0;
+    }
+
+    /**
+     * Registers a token.
+     *
+     * @param token the token
+     * @param ttl how long the token should be allowed for
+     * @param unit the unit of the ttl
+     */
+    public void register(String token, long ttl, TimeUnit unit) {
+        long ttlNanos = Math.min(unit.toNanos(ttl), TimeUnit.SECONDS.toNanos(this.maxTtlSeconds));
+        Registration registration = new Registration(token, ByteBuffer.wrap(TokenStore.compact(token)), System.nanoTime() + ttlNanos);
+        this.tokens.put(token, registration);
+        this.compactTokens.put(registration.compactToken, registration);
+        this.pending.add(registration);
+        this.registered.increment();
+    }
+
+    /**
+     * Revokes a token.
+     *
+     * @param token the token
+     */
+    public void revoke(String token) {
+        this.tokens.remove(token);
+        this.compactTokens.remove(ByteBuffer.wrap(TokenStore.compact(token)));
+    }
+
+    private void tick() {
+        Path directory = this.directory;
+        if (directory != null) {
+            try {
+                readDirectory(directory);
+                this.lastDirectoryError = null;
+            } catch (Throwable t) {
+                // only log when the error changes, rather than every tick
+                String error = t.toString();
+                if (!error.equals(this.lastDirectoryError)) {
+                    this.plugin.logWarning("Error whilst reading ephemeral token directory " + directory + ": " + error);
+                    this.lastDirectoryError = error;
+                }
+            }
+        }
+
+        // kept separate, so tokens are still scheduled & expired if the directory can't be read
+        try {
+            Registration registration;
+            while ((registration = this.pending.poll()) != null) {
+                // round up, so tokens never expire early
+                long deadline = (registration.expiresAt - this.startNanos + TICK_NANOS - 1) / TICK_NANOS;
+                this.wheel.schedule(registration, deadline);
+            }
+
+            long tick = (System.nanoTime() - this.startNanos) / TICK_NANOS;
+            this.wheel.advance(tick, r -> {
+                // only remove if the token hasn't been registered again since
+                if (this.tokens.remove(r.token, r)) {
+                    this.expired.increment();
+                }
+                this.compactTokens.remove(r.compactToken, r);
+            });
+        } catch (Throwable t) {
+            this.plugin.logWarning("Error whilst expiring ephemeral tokens: " + t);
+        }
+    }
+
+    private void readDirectory(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        // forget files which have since been removed
+        this.ignoredFiles.removeIf(file -> !Files.exists(file));
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                if (file.getFileName().toString().startsWith(".") || !Files.isRegularFile(file) || this.ignoredFiles.contains(file)) {
+                    continue;
+                }
+
+                List<String> lines;
+                try {
+                    lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+                    Files.delete(file);
+                } catch (IOException e) {
+                    reject(file, e);
+                    continue;
+                }
+
+                for (String line : lines) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+
+                    String[] parts = line.split("\\s+");
+                    long ttl;
+                    try {
+                        ttl = parts.length == 2 ? Long.parseLong(parts[1]) : -1;
+                    } catch (NumberFormatException e) {
+                        ttl = -1;
+                    }
+
+                    if (ttl < 0) {
+                        this.plugin.logWarning("Ignoring invalid line in ephemeral token file " + file.getFileName() + " - expected '<token> <ttl-seconds>'");
+                    } else if (ttl == 0) {
+                        revoke(parts[0]);
+                    } else {
+                        register(parts[0], ttl, TimeUnit.SECONDS);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves a file which couldn't be processed out of the way, so it isn't retried
+     * every tick and doesn't hold up the files after it.
+     *
+     * @param file the file
+     * @param error the error encountered whilst processing it
+     */
+    private void reject(Path file, IOException error) {
+        Path rejected = file.resolveSibling(".rejected-" + file.getFileName());
+        try {
+            Files.move(file, rejected, StandardCopyOption.REPLACE_EXISTING);
+            this.plugin.logWarning("Unable to process ephemeral token file " + file.getFileName() + ", moved to " + rejected.getFileName() + ": " + error);
+        } catch (IOException e) {
+            this.ignoredFiles.add(file);
+            this.plugin.logWarning("Unable to process ephemeral token file " + file.getFileName() + ", ignoring it until it is removed: " + error);
+        }
+    }
+
+    /**
+     * Gets a short, human readable description of the registry.
+     *
+     * @return a description
+     */
+    public String describe() {
+        if (this.scheduler == null) {
+            return "Ephemeral tokens: disabled";
+        }
+        return "Ephemeral tokens: " + this.tokens.size() + " active (" +
+                this.registered.sum() + " registered, " +
+                this.expired.sum() + " expired)";
+    }
+
+    private static final class Registration {
+        private final String token;
+        private final ByteBuffer compactToken;
+        private final long expiresAt;
+
+        Registration(String token, ByteBuffer compactToken, long expiresAt) {
+            this.token = token;
+            this.compactToken = compactToken;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+}
@@ -0,0 +1,341 @@
+/*
+ * This file is part of BungeeGuard, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.bungeeguard.backend;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A blocklist of source addresses, shared between all BungeeGuard instances on the
+ * same host using a memory-mapped file.
+ *
+ * When one server denies a connection, the source address is recorded in the
+ * file, allowing the other servers to drop connections from the same source
+ * without decoding their handshake.
+ *
+ * The file contains a fixed-size open-addressing hash table. Each slot holds a
+ * 64-bit hash of the address and the time (in millis) at which the entry expires.
+ * Lookups read the mapped buffer without locking. Updates are made whilst holding
+ * an exclusive lock on the file, which is shared with the other processes mapping it.
+ * As taking the lock may block, denials are handed to a single background writer
+ * through a bounded queue, and are skipped if it isn't keeping up.
+ *
+ * Trusted addresses (e.g. the proxies) are never recorded or blocked, so that a
+ * misconfigured token on one server can't cut a proxy off from every server on the host.
+ */
+public class HostBlocklist implements AutoCloseable {
+
+    private static final int MAGIC = 0x42474246; // "BGBF"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 16;
+    /** The maximum number of slots to probe before giving up. */
+    private static final int MAX_PROBES = 16;
+    /** The maximum number of slots, so the file can be mapped into a single buffer. */
+    private static final int MAX_SLOTS = (Integer.MAX_VALUE - HEADER_SIZE) / SLOT_SIZE;
+    /** The maximum number of denials waiting to be written. */
+    private static final int QUEUE_SIZE = 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slots;
+    private final long blockMillis;
+    private final Set<String> trustedAddresses;
+    private final ThreadPoolExecutor writer;
+
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    private HostBlocklist(RandomAccessFile file, FileChannel channel, MappedByteBuffer buffer, int slots, long blockMillis, Set<String> trustedAddresses) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.slots = slots;
+        this.blockMillis = blockMillis;
+        this.trustedAddresses = trustedAddresses;
+        this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE), r -> {
+            Thread thread = new Thread(r, "bungeeguard-blocklist-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens the blocklist file configured in the plugin's config, if enabled.
+     *
+     * @param plugin the plugin
+     * @return the blocklist, or null if disabled or the file could not be opened
+     */
+    public static HostBlocklist load(BungeeGuardBackend plugin) {
+        if (!plugin.getBoolean("host-blocklist.enabled", false)) {
+            return null;
+        }
+
+        Path path = Paths.get(plugin.getString("host-blocklist.file", "/dev/shm/bungeeguard-blocklist"));
+        int slots = Math.min(MAX_SLOTS, Math.max(MAX_PROBES, plugin.getInt("host-blocklist.slots", 65536)));
+        int blockSeconds = Math.max(1, plugin.getInt("host-blocklist.block-seconds", 300));
+
+        Set<String> trustedAddresses = new HashSet<>();
+        for (String address : plugin.getStringList("host-blocklist.trusted-addresses")) {
+            try {
+                // normalise to the form returned by InetSocketAddress#getHostString
+                for (InetAddress resolved : InetAddress.getAllByName(address)) {
+                    trustedAddresses.add(resolved.getHostAddress());
+                }
+            } catch (UnknownHostException e) {
+                plugin.logWarning("Unable to resolve trusted address '" + address + "' for the host blocklist");
+            }
+        }
+
+        try {
+            HostBlocklist blocklist = open(path, slots, blockSeconds, TimeUnit.SECONDS, trustedAddresses);
+            plugin.logInfo("Using host blocklist file at " + path.toAbsolutePath() + " (" + blocklist.slots + " slots).");
+            return blocklist;
+        } catch (IOException | RuntimeException e) {
+            plugin.logWarning("Unable to open host blocklist file at " + path.toAbsolutePath() + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Opens (or creates) a blocklist file.
+     *
+     * If the file already exists, the number of slots it was created with is used.
+     *
+     * @param path the path of the file
+     * @param slots the number of slots to create the file with, at most {@value #MAX_SLOTS}
+     * @param blockDuration how long to block addresses for
+     * @param unit the unit of the duration
+     * @param trustedAddresses addresses which are never recorded or blocked
+     * @return the blocklist
+     * @throws IOException if the file could not be opened, or is not a blocklist file
+     */
+    public static HostBlocklist open(Path path, int slots, long blockDuration, TimeUnit unit, Set<String> trustedAddresses) throws IOException {
+        if (slots < MAX_PROBES || slots > MAX_SLOTS) {
+            throw new IllegalArgumentException("slots must be between " + MAX_PROBES + " and " + MAX_SLOTS + ": " + slots);
+        }
+
+        RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+        try {
+            FileChannel channel = file.getChannel();
+
+            int actualSlots;
+            try (FileLock ignored = channel.lock()) {
+                if (file.length() < HEADER_SIZE) {
+                    // new file, initialise the header
+                    file.setLength(HEADER_SIZE + (long) slots * SLOT_SIZE);
+                    file.seek(0);
+                    file.writeInt(MAGIC);
+                    file.writeInt(VERSION);
+                    file.writeInt(slots);
+                    actualSlots = slots;
+                } else {
+                    file.seek(0);
+                    if (file.readInt() != MAGIC || file.readInt() != VERSION) {
+                        throw new IOException(path + " is not a BungeeGuard blocklist file");
+                    }
+                    actualSlots = file.readInt();
+                    if (actualSlots <= 0 || actualSlots > MAX_SLOTS || file.length() < HEADER_SIZE + (long) actualSlots * SLOT_SIZE) {
+                        throw new IOException(path + " is corrupt");
+                    }
+                }
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) actualSlots * SLOT_SIZE);
+            return new HostBlocklist(file, channel, buffer, actualSlots, unit.toMillis(blockDuration), Collections.unmodifiableSet(new HashSet<>(trustedAddresses)));
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets if connections from the given address should be dropped.
+     *
+     * @param host the source address
+     * @return true if blocked
+     */
+    public boolean isBlocked(String host) {
+        if (this.trustedAddresses.contains(host)) {
+            return false;
+        }
+
+        long key = hash(host);
+        long now = System.currentTimeMillis();
+
+        int index = index(key);
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int offset = offset(index + i);
+            long slotKey = this.buffer.getLong(offset);
+            if (slotKey == 0) {
+                return false;
+            }
+            if (slotKey == key) {
+                if (this.buffer.getLong(offset + 8) > now) {
+                    this.dropped.increment();
+                    return true;
+                }
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records that a connection from the given address has been denied.
+     *
+     * The entry is written asynchronously, so this never blocks on the file lock.
+     *
+     * @param host the source address
+     */
+    public void recordDenial(String host) {
+        if (this.trustedAddresses.contains(host)) {
+            return;
+        }
+
+        long key = hash(host);
+        long expiry = System.currentTimeMillis() + this.blockMillis;
+        try {
+            this.writer.execute(() -> write(key, expiry));
+        } catch (RejectedExecutionException e) {
+            // the writer isn't keeping up, or we're closing
+            this.skipped.increment();
+        }
+    }
+
+    /**
+     * Writes an entry to the table. Only called from the writer thread, so
+     * the file lock just needs to exclude the other processes.
+     *
+     * @param key the hash of the address
+     * @param expiry the time at which the entry expires
+     */
+    private void write(long key, long expiry) {
+        long now = System.currentTimeMillis();
+        if (expiry <= now) {
+            return; // waited too long in the queue
+        }
+
+        try (FileLock ignored = this.channel.lock(0, HEADER_SIZE, false)) {
+            int index = index(key);
+            int candidate = -1;
+            for (int i = 0; i < MAX_PROBES; i++) {
+                int offset = offset(index + i);
+                long slotKey = this.buffer.getLong(offset);
+                if (slotKey == key) {
+                    candidate = offset;
+                    break;
+                }
+                if (slotKey == 0) {
+                    if (candidate == -1) {
+                        candidate = offset;
+                    }
+                    break;
+                }
+                if (candidate == -1 && this.buffer.getLong(offset + 8) <= now) {
+                    // reuse expired entries, but keep probing in case the key is already present
+                    candidate = offset;
+                }
+            }
+
+            if (candidate == -1) {
+                return; // table is too full here - give up
+            }
+
+            // clear the expiry before replacing the key. Plain puts to a mapped buffer
+            // have no ordering guarantee in the Java memory model, but on x86 (TSO) stores
+            // become visible in program order, so a concurrent reader won't see an unexpired
+            // entry for the wrong key. Elsewhere a reader may briefly do so, at worst
+            // dropping a connection from an address sharing the slot.
+            this.buffer.putLong(candidate + 8, 0);
+            this.buffer.putLong(candidate, key);
+            this.buffer.putLong(candidate + 8, expiry);
+            this.recorded.increment();
+        } catch (IOException e) {
+            // ignore, the next denial will try again
+        }
+    }
+
+    private int index(long key) {
+        return (int) ((key >>> 1) % this.slots);
+    }
+
+    private int offset(int index) {
+        return HEADER_SIZE + (index % this.slots) * SLOT_SIZE;
+    }
+
+    /**
+     * Computes the 64-bit FNV-1a hash of the given address.
+     *
+     * @param host the address
+     * @return the hash, never 0
+     */
+    private static long hash(String host) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < host.length(); i++) {
+            hash ^= host.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * Gets a short, human readable summary of the blocklist.
+     *
+     * @return a description
+     */
+    public String describe() {
+        return "Host blocklist: " + this.slots + " slots, " +
+                this.trustedAddresses.size() + " trusted addresses, " +
+                this.recorded.sum() + " addresses recorded, " +
+                this.skipped.sum() + " denials skipped, " +
+                this.dropped.sum() + " connections dropped";
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.writer.shutdownNow();
+        this.file.close();
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * This file is part of BungeeGuard, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.bungeeguard.backend;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks the rate of denied handshakes, and switches into "lockdown" when the
+ * rate passes a threshold.
+ *
+ * Whilst in lockdown, denied connections should be closed immediately - without
+ * sending a disconnect message, and without being logged individually.
+ */
+public class LockdownMonitor {
+
+    /** The length of the window used to measure the denial rate. */
+    private static final long WINDOW_MILLIS = 1000;
+
+    private final BungeeGuardBackend plugin;
+
+    // settings
+    private volatile boolean enabled;
+    private volatile int activateThreshold;
+    private volatile int deactivateThreshold;
+    private volatile long cooldownMillis;
+
+    // state
+    private final LongAdder windowDenials = new LongAdder();
+    private volatile long windowStart;
+    private volatile long windowEnd;
+    private volatile boolean active;
+    private long calmSince = -1; // guarded by this
+
+    // metrics
+    private final LongAdder totalDenials = new LongAdder();
+    private final LongAdder silentDenials = new LongAdder();
+    private final LongAdder activations = new LongAdder();
+
+    public LockdownMonitor(BungeeGuardBackend plugin) {
+        this.plugin = plugin;
+    }
+
+    public synchronized void load() {
+        this.enabled = this.plugin.getBoolean("lockdown.enabled", true);
+        this.activateThreshold = Math.max(1, this.plugin.getInt("lockdown.activate-threshold", 50));
+        this.deactivateThreshold = Math.min(this.activateThreshold, Math.max(0, this.plugin.getInt("lockdown.deactivate-threshold", 10)));
+        this.cooldownMillis = Math.max(0, this.plugin.getInt("lockdown.cooldown-seconds", 30)) * 1000L;
+
+        if (!this.enabled && this.active) {
+            switchState(false, "lockdown has been disabled in the config");
+        }
+    }
+
+    /**
+     * Records that a connection has been denied.
+     *
+     * @return true if the connection should be closed silently
+     */
+    public boolean recordDenial() {
+        this.totalDenials.increment();
+        if (!this.enabled) {
+            return false;
+        }
+
+        this.windowDenials.increment();
+
+        long now = System.currentTimeMillis();
+        if (now >= this.windowEnd) {
+            roll(now);
+        }
+
+        if (this.active) {
+            this.silentDenials.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets if lockdown is currently active.
+     *
+     * @return true if active
+     */
+    public boolean isActive() {
+        long now = System.currentTimeMillis();
+        if (this.enabled && now >= this.windowEnd) {
+            roll(now);
+        }
+        return this.active;
+    }
+
+    private synchronized void roll(long now) {
+        if (now < this.windowEnd) {
+            return; // another thread got here first
+        }
+
+        long start = this.windowStart;
+        long denials = this.windowDenials.sumThenReset();
+
+        // the window may have been left open for longer than WINDOW_MILLIS if
+        // there were no denials, so calculate the rate over the actual duration
+        if (start != 0) {
+            long duration = Math.max(WINDOW_MILLIS, now - start);
+            double rate = denials * 1000d / duration;
+
+            if (!this.active) {
+                if (rate >= this.activateThreshold) {
+                    this.calmSince = -1;
+                    switchState(true, String.format("%.1f denied connections/sec", rate));
+                }
+            } else if (rate < this.deactivateThreshold) {
+                if (this.calmSince == -1) {
+                    this.calmSince = start;
+                }
+                if (now - this.calmSince >= this.cooldownMillis) {
+                    switchState(false, String.format("%.1f denied connections/sec", rate));
+                }
+            } else {
+                this.calmSince = -1;
+            }
+        }
+
+        this.windowStart = now;
+        this.windowEnd = now + WINDOW_MILLIS;
+    }
+
+    private void switchState(boolean active, String reason) {
+        this.active = active;
+        this.calmSince = -1;
+        if (active) {
+            this.activations.increment();
+            this.plugin.logWarning("Entering lockdown mode (" + reason + "). Denied connections will be closed silently and no longer logged.");
+        } else {
+            this.plugin.logInfo("Leaving lockdown mode (" + reason + "). " + this.silentDenials.sum() + " connections have been closed silently so far.");
+        }
+    }
+
+    /**
+     * Gets a short, human readable description of the lockdown state.
+     *
+     * @return a description
+     */
+    public String describe() {
+        return "Lockdown: " + (!this.enabled ? "disabled" : isActive() ? "ACTIVE" : "inactive") +
+                " (activations: " + this.activations.sum() +
+                ", denied: " + this.totalDenials.sum() +
+                ", closed silently: " + this.silentDenials.sum() + ")";
+    }
+
+}
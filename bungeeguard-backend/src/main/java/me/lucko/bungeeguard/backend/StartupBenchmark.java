@@ -0,0 +1,62 @@
+/*
+ * This file is part of BungeeGuard, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.bungeeguard.backend;
+
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time taken, and the number of classes loaded, whilst the plugin is enabling.
+ */
+public final class StartupBenchmark {
+    private static final ClassLoadingMXBean CLASS_LOADING = ManagementFactory.getClassLoadingMXBean();
+
+    private final long startNanos;
+    private final long startClassCount;
+
+    private StartupBenchmark() {
+        this.startNanos = System.nanoTime();
+        this.startClassCount = CLASS_LOADING.getTotalLoadedClassCount();
+    }
+
+    public static StartupBenchmark start() {
+        return new StartupBenchmark();
+    }
+
+    /**
+     * Describes the measurements taken since the benchmark was started.
+     *
+     * @param platform the platform the plugin has been enabled for
+     * @return a description
+     */
+    public String describe(String platform) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.startNanos);
+        long classes = CLASS_LOADING.getTotalLoadedClassCount() - this.startClassCount;
+        return "Enabled for " + platform + " in " + millis + "ms (" + classes + " classes loaded).";
+    }
+
+}
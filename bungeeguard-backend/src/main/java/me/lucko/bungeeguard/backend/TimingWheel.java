@@ -0,0 +1,147 @@
+/*
+ * This file is part of BungeeGuard, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.bungeeguard.backend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel, used to expire entries without having to scan
+ * or rebuild the collection they belong to.
+ *
+ * Time is measured in ticks. Entries are placed in the finest level which can
+ * hold their deadline, and cascade down to finer levels as time advances.
+ *
+ * Not thread safe - all methods should be called from the same thread.
+ *
+ * @param <T> the entry type
+ */
+final class TimingWheel<T> {
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 3;
+    /** The furthest deadline which can be placed in the wheel directly. */
+    private static final long MAX_DELAY = (1L << (BITS * LEVELS)) - 1;
+
+    private final List<List<Entry<T>>> slots = new ArrayList<>(LEVELS * SLOTS);
+    private long currentTick;
+    private int size = 0;
+
+    TimingWheel(long currentTick) {
+        this.currentTick = currentTick;
+        for (int i = 0; i < LEVELS * SLOTS; i++) {
+            this.slots.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Schedules an entry to expire at the given tick.
+     *
+     * @param value the entry
+     * @param deadline the tick to expire at
+     */
+    void schedule(T value, long deadline) {
+        // the slot for the current tick has already been processed, so the
+        // earliest an entry can expire is the next tick
+        place(new Entry<>(value, deadline), 1);
+        this.size++;
+    }
+
+    private void place(Entry<T> entry, long minDelay) {
+        // deadlines beyond the range of the wheel are placed as far away as possible,
+        // and placed again when they get there
+        long delay = Math.min(Math.max(minDelay, entry.deadline - this.currentTick), MAX_DELAY);
+        long deadline = this.currentTick + delay;
+
+        int level = 0;
+        while (delay >= 1L << (BITS * (level + 1))) {
+            level++;
+        }
+
+        int slot = (int) ((deadline >>> (BITS * level)) & MASK);
+        this.slots.get(level * SLOTS + slot).add(entry);
+    }
+
+    /**
+     * Advances the wheel up to the given tick, passing expired entries to the consumer.
+     *
+     * @param tick the tick to advance to
+     * @param expired the consumer of expired entries
+     */
+    void advance(long tick, Consumer<T> expired) {
+        while (this.currentTick < tick) {
+            this.currentTick++;
+
+            // cascade entries from coarser levels when the finer levels wrap around
+            for (int level = 1; level < LEVELS; level++) {
+                if ((this.currentTick & ((1L << (BITS * level)) - 1)) != 0) {
+                    break;
+                }
+                int slot = (int) ((this.currentTick >>> (BITS * level)) & MASK);
+                for (Entry<T> entry : drain(level, slot)) {
+                    // entries due now go into the current slot, which is processed below
+                    place(entry, 0);
+                }
+            }
+
+            for (Entry<T> entry : drain(0, (int) (this.currentTick & MASK))) {
+                if (entry.deadline <= this.currentTick) {
+                    this.size--;
+                    expired.accept(entry.value);
+                } else {
+                    place(entry, 1);
+                }
+            }
+        }
+    }
+
+    private List<Entry<T>> drain(int level, int slot) {
+        List<Entry<T>> list = this.slots.get(level * SLOTS + slot);
+        if (list.isEmpty()) {
+            return list;
+        }
+        List<Entry<T>> entries = new ArrayList<>(list);
+        list.clear();
+        return entries;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    private static final class Entry<T> {
+        private final T value;
+        private final long deadline;
+
+        Entry(T value, long deadline) {
+            this.value = value;
+            this.deadline = deadline;
+        }
+    }
+
+}
@@ -25,19 +25,42 @@
 
 package me.lucko.bungeeguard.backend;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
  * A store of allowed tokens.
+ *
+ * Tokens can be presented in two forms: the token itself, or the "compact" form,
+ * which is the SHA-256 digest of the token, base64url encoded without padding.
  */
 public class TokenStore {
+    /** The length of an encoded compact token. */
+    private static final int COMPACT_TOKEN_LENGTH = 43;
+    /** The example tokens in the default config. */
+    private static final List<String> DEFAULT_TOKENS = Arrays.asList(
+            "the token generated by the proxy goes here",
+            "you can add as many as you like."
+    );
+
     private final BungeeGuardBackend plugin;
-    private Set<String> allowedTokens = Collections.emptySet();
+    private final EphemeralTokenRegistry ephemeralTokens;
+    private volatile Set<String> allowedTokens = Collections.emptySet();
+    private volatile Set<ByteBuffer> allowedCompactTokens = Collections.emptySet();
+    private volatile boolean defaultTokensPresent = false;
 
     public TokenStore(BungeeGuardBackend plugin) {
         this.plugin = plugin;
+        this.ephemeralTokens = new EphemeralTokenRegistry(plugin);
     }
 
     public void reload() {
@@ -46,7 +69,27 @@ public class TokenStore {
     }
 
     public void load() {
-        this.allowedTokens = new HashSet<>(this.plugin.getTokens());
+        List<String> tokens = new ArrayList<>(this.plugin.getTokens());
+        // the example tokens are never allowed
+        boolean defaultTokensPresent = tokens.removeAll(DEFAULT_TOKENS);
+
+        Set<ByteBuffer> compactTokens = new HashSet<>();
+        for (String token : tokens) {
+            compactTokens.add(ByteBuffer.wrap(compact(token)));
+        }
+
+        this.allowedTokens = new HashSet<>(tokens);
+        this.allowedCompactTokens = compactTokens;
+        this.defaultTokensPresent = defaultTokensPresent;
+        this.ephemeralTokens.load();
+    }
+
+    public void shutdown() {
+        this.ephemeralTokens.shutdown();
+    }
+
+    public EphemeralTokenRegistry getEphemeralTokens() {
+        return this.ephemeralTokens;
     }
 
     /**
@@ -56,7 +99,61 @@ public class TokenStore {
      * @return true if allowed
      */
     public boolean isAllowed(String token) {
-        return this.allowedTokens.contains(token);
+        return this.allowedTokens.contains(token) || this.ephemeralTokens.isAllowed(token);
+    }
+
+    /**
+     * Gets if a token, presented in its compact form, is allowed.
+     *
+     * @param compactToken the SHA-256 digest of the token
+     * @return true if allowed
+     */
+    public boolean isAllowedCompact(byte[] compactToken) {
+        ByteBuffer key = ByteBuffer.wrap(compactToken);
+        return this.allowedCompactTokens.contains(key) || this.ephemeralTokens.isAllowedCompact(key);
+    }
+
+    /**
+     * Gets if a token, presented in its encoded compact form, is allowed.
+     *
+     * @param encodedCompactToken the base64url encoded SHA-256 digest of the token
+     * @return true if allowed
+     */
+    public boolean isAllowedCompact(String encodedCompactToken) {
+        byte[] compactToken = decodeCompact(encodedCompactToken);
+        return compactToken != null && isAllowedCompact(compactToken);
+    }
+
+    /**
+     * Decodes an encoded compact token.
+     *
+     * @param encodedCompactToken the encoded compact token
+     * @return the decoded digest, or null if it is malformed
+     */
+    public static byte[] decodeCompact(String encodedCompactToken) {
+        if (encodedCompactToken.length() != COMPACT_TOKEN_LENGTH) {
+            return null;
+        }
+        try {
+            return Base64.getUrlDecoder().decode(encodedCompactToken);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Computes the compact form of a token.
+     *
+     * @param token the token
+     * @return the SHA-256 digest of the token
+     */
+    public static byte[] compact(String token) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM is required to support SHA-256
+            throw new RuntimeException(e);
+        }
     }
 
     /**
@@ -65,8 +162,8 @@ public class TokenStore {
      * @return true if BungeeGuard has not yet been configured
      */
     public boolean isUsingDefaultConfig() {
-        return this.allowedTokens.contains("the token generated by the proxy goes here") ||
-                this.allowedTokens.contains("you can add as many as you like.");
+        // setups using only ephemeral tokens may leave the examples in place
+        return this.defaultTokensPresent && !this.ephemeralTokens.isEnabled();
     }
 
 }
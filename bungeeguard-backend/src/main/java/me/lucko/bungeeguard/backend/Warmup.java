@@ -0,0 +1,98 @@
+/*
+ * This file is part of BungeeGuard, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.bungeeguard.backend;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs synthetic handshakes through the verification code at startup, so that
+ * the classes involved are loaded and the hot paths compiled before the first
+ * real connections arrive.
+ */
+public class Warmup {
+    private final BungeeGuardBackend plugin;
+
+    private volatile boolean ready = false;
+    private volatile long durationMillis = -1;
+
+    public Warmup(BungeeGuardBackend plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Starts the warm-up on a background thread.
+     *
+     * @param iterations the number of iterations to run
+     * @param iteration the body of each iteration, accepting the iteration index
+     */
+    public void start(int iterations, IntConsumer iteration) {
+        if (iterations <= 0) {
+            this.ready = true;
+            return;
+        }
+
+        Thread thread = new Thread(() -> {
+            long start = System.nanoTime();
+            try {
+                for (int i = 0; i < iterations; i++) {
+                    iteration.accept(i);
+                }
+                this.durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                this.plugin.logInfo("Warm-up complete: ran " + iterations + " synthetic handshakes in " + this.durationMillis + "ms.");
+            } catch (Throwable t) {
+                this.plugin.logWarning("Warm-up failed after " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms: " + t);
+            } finally {
+                this.ready = true;
+            }
+        }, "bungeeguard-warmup");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Gets if the warm-up has finished.
+     *
+     * @return true if ready
+     */
+    public boolean isReady() {
+        return this.ready;
+    }
+
+    /**
+     * Gets a short, human readable description of the warm-up state.
+     *
+     * @return a description
+     */
+    public String describe() {
+        if (!this.ready) {
+            return "Warm-up: in progress";
+        }
+        return this.durationMillis == -1 ? "Warm-up: skipped or failed" : "Warm-up: complete (" + this.durationMillis + "ms)";
+    }
+
+}
@@ -26,6 +26,8 @@
 package me.lucko.bungeeguard.backend.listener;
 
 import me.lucko.bungeeguard.backend.BungeeGuardBackend;
+import me.lucko.bungeeguard.backend.HostBlocklist;
+import me.lucko.bungeeguard.backend.LockdownMonitor;
 import me.lucko.bungeeguard.backend.TokenStore;
 
 /**
@@ -34,14 +36,45 @@ import me.lucko.bungeeguard.backend.TokenStore;
 public abstract class AbstractHandshakeListener {
     protected final BungeeGuardBackend plugin;
     protected final TokenStore tokenStore;
+    protected final LockdownMonitor lockdown;
+    protected final HostBlocklist blocklist; // nullable
 
     protected final String noDataKickMessage;
     protected final String invalidTokenKickMessage;
 
-    protected AbstractHandshakeListener(BungeeGuardBackend plugin, TokenStore tokenStore) {
+    protected AbstractHandshakeListener(BungeeGuardBackend plugin, TokenStore tokenStore, LockdownMonitor lockdown, HostBlocklist blocklist) {
         this.plugin = plugin;
         this.tokenStore = tokenStore;
+        this.lockdown = lockdown;
+        this.blocklist = blocklist;
         this.noDataKickMessage = plugin.getMessage("no-data-kick-message");
         this.invalidTokenKickMessage = plugin.getMessage("invalid-token-kick-message");
     }
+
+    /**
+     * Gets if connections from the given address should be dropped without
+     * being decoded, as another server on this host has recently denied it.
+     *
+     * @param host the source address, or null if unknown
+     * @return true if the connection should be dropped
+     */
+    protected boolean isBlocked(String host) {
+        if (this.blocklist == null || host == null || !this.blocklist.isBlocked(host)) {
+            return false;
+        }
+        this.lockdown.recordDenial();
+        return true;
+    }
+
+    /**
+     * Records a denied connection in the host blocklist.
+     *
+     * @param host the source address, or null if unknown
+     */
+    protected void recordBlocklistDenial(String host) {
+        // if the tokens aren't configured, every connection is denied - including the proxy's!
+        if (this.blocklist != null && host != null && !this.tokenStore.isUsingDefaultConfig()) {
+            this.blocklist.recordDenial(host);
+        }
+    }
 }
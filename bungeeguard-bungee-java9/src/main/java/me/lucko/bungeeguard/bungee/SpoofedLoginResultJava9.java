@@ -32,18 +32,24 @@ public class SpoofedLoginResultJava9 extends SpoofedLoginResult {
     private static final StackWalker STACK_WALKER = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
 
     // online mode constructor
-    public SpoofedLoginResultJava9(LoginResult oldProfile, String bungeeGuardToken) {
+    public SpoofedLoginResultJava9(LoginResult oldProfile, Property bungeeGuardToken) {
         super(oldProfile, bungeeGuardToken);
     }
 
     // offline mode constructor
-    public SpoofedLoginResultJava9(String bungeeGuardToken) {
+    public SpoofedLoginResultJava9(Property bungeeGuardToken) {
         super(bungeeGuardToken);
     }
 
+    // calibration constructor
+    SpoofedLoginResultJava9(Property bungeeGuardToken, Class<?> trustedCaller) {
+        super(bungeeGuardToken, trustedCaller);
+    }
+
     @Override
     public Property[] getProperties() {
+        long start = System.nanoTime();
         Class<?> caller = STACK_WALKER.getCallerClass();
-        return getSpoofedProperties(caller);
+        return getSpoofedProperties(caller, start);
     }
 }
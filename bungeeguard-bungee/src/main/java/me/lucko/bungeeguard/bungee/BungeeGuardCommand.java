@@ -0,0 +1,74 @@
+/*
+ * This file is part of BungeeGuard, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.bungeeguard.bungee;
+
+import net.md_5.bungee.api.ChatColor;
+import net.md_5.bungee.api.CommandSender;
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.chat.TextComponent;
+import net.md_5.bungee.api.plugin.Command;
+
+/**
+ * The proxy '/bungeeguard' command.
+ */
+class BungeeGuardCommand extends Command {
+    private final BungeeGuardProxyPlugin plugin;
+
+    BungeeGuardCommand(BungeeGuardProxyPlugin plugin) {
+        super("bungeeguard");
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void execute(CommandSender sender, String[] args) {
+        if (sender != ProxyServer.getInstance().getConsole()) {
+            send(sender, ChatColor.RED + "Sorry, this command can only be ran from the console.");
+            return;
+        }
+
+        if (args.length != 0 && args[0].equalsIgnoreCase("stats")) {
+            send(sender, ChatColor.RED + "BungeeGuard stats:");
+            for (String line : ProxyMetrics.INSTANCE.describe()) {
+                send(sender, ChatColor.GRAY + line);
+            }
+            return;
+        }
+
+        if (args.length != 0 && args[0].equalsIgnoreCase("reset")) {
+            ProxyMetrics.INSTANCE.reset();
+            send(sender, ChatColor.RED + "BungeeGuard stats reset.");
+            return;
+        }
+
+        send(sender, ChatColor.RED + "Running BungeeGuard v" + this.plugin.getDescription().getVersion());
+        send(sender, ChatColor.GRAY + "Use '/bungeeguard stats' to view token injection stats.");
+        send(sender, ChatColor.GRAY + "Use '/bungeeguard reset' to reset the stats.");
+    }
+
+    private static void send(CommandSender sender, String message) {
+        sender.sendMessage(TextComponent.fromLegacyText(message));
+    }
+}
@@ -35,9 +35,18 @@ import net.md_5.bungee.config.ConfigurationProvider;
 import net.md_5.bungee.config.YamlConfiguration;
 import net.md_5.bungee.connection.InitialHandler;
 import net.md_5.bungee.event.EventHandler;
+import net.md_5.bungee.protocol.Property;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 /**
@@ -65,13 +74,61 @@ public class BungeeGuardProxyPlugin extends Plugin implements Listener {
         return sb.toString();
     }
 
+    /**
+     * Creates the property used to send the token to backend servers.
+     *
+     * <p>The compact form sends the base64url encoded SHA-256 digest of the token
+     * under a shorter name, saving space in the handshake.</p>
+     *
+     * @param token the token
+     * @param compact if the compact form should be used
+     * @return the token property
+     */
+    private static Property createTokenProperty(String token, boolean compact) {
+        if (!compact) {
+            return new Property("bungeeguard-token", token, "");
+        }
+
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        // no signature, so it is omitted from the handshake entirely
+        return new Property("bgt", Base64.getUrlEncoder().withoutPadding().encodeToString(digest), null);
+    }
+
     /**
      * The auth token to inject into the property map
      */
     private String token = null;
 
+    /**
+     * If the token should be sent in its compact form
+     */
+    private boolean compactToken = false;
+
+    /**
+     * The property injected into the property map
+     */
+    private Property tokenProperty = null;
+
+    /**
+     * How often to write metrics to a file, in seconds, or 0 to disable
+     */
+    private int metricsFileInterval = 60;
+
+    /**
+     * If the caller detection strategies should be benchmarked at startup
+     */
+    private boolean calibrateCallerDetection = false;
+
     @Override
     public void onEnable() {
+        ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+        long startNanos = System.nanoTime();
+        long startClassCount = classLoading.getTotalLoadedClassCount();
 
         // load a token from the config, if present
         ConfigurationProvider provider = ConfigurationProvider.getProvider(YamlConfiguration.class);
@@ -83,6 +140,9 @@ public class BungeeGuardProxyPlugin extends Plugin implements Listener {
             try {
                 Configuration configuration = provider.load(file);
                 this.token = configuration.getString("token", null);
+                this.compactToken = configuration.getBoolean("compact-token", false);
+                this.metricsFileInterval = configuration.getInt("metrics-file-interval-seconds", 60);
+                this.calibrateCallerDetection = configuration.getBoolean("calibrate-caller-detection", false);
             } catch (Exception e) {
                 getLogger().log(Level.SEVERE, "Unable to load token from config", e);
             }
@@ -93,6 +153,9 @@ public class BungeeGuardProxyPlugin extends Plugin implements Listener {
 
             Configuration configuration = new Configuration();
             configuration.set("token", this.token);
+            configuration.set("compact-token", this.compactToken);
+            configuration.set("metrics-file-interval-seconds", this.metricsFileInterval);
+            configuration.set("calibrate-caller-detection", this.calibrateCallerDetection);
 
             try {
                 provider.save(configuration, file);
@@ -101,14 +164,61 @@ public class BungeeGuardProxyPlugin extends Plugin implements Listener {
             }
         }
 
+        this.tokenProperty = createTokenProperty(this.token, this.compactToken);
+
+        // calibration is timed separately, so it doesn't skew the startup measurement
+        long calibrationNanos = 0;
+        long calibrationClasses = 0;
+        if (this.calibrateCallerDetection) {
+            long calibrationStart = System.nanoTime();
+            long calibrationStartClassCount = classLoading.getTotalLoadedClassCount();
+            calibrateCallerDetection();
+            calibrationNanos = System.nanoTime() - calibrationStart;
+            calibrationClasses = classLoading.getTotalLoadedClassCount() - calibrationStartClassCount;
+            getLogger().info("Calibration: finished in " + TimeUnit.NANOSECONDS.toMillis(calibrationNanos) + "ms (" + calibrationClasses + " classes loaded).");
+        }
+
         getProxy().getPluginManager().registerListener(this, this);
+        getProxy().getPluginManager().registerCommand(this, new BungeeGuardCommand(this));
+
+        if (this.metricsFileInterval > 0) {
+            File metricsFile = new File(getDataFolder(), "metrics.txt");
+            getProxy().getScheduler().schedule(this, () -> {
+                try {
+                    ProxyMetrics.INSTANCE.writeTo(metricsFile.toPath());
+                } catch (IOException ex) {
+                    getLogger().log(Level.WARNING, "Unable to write metrics file", ex);
+                }
+            }, this.metricsFileInterval, this.metricsFileInterval, TimeUnit.SECONDS);
+        }
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos - calibrationNanos);
+        long classes = classLoading.getTotalLoadedClassCount() - startClassCount - calibrationClasses;
+        getLogger().info("Enabled for BungeeCord in " + millis + "ms (" + classes + " classes loaded).");
+    }
+
+    private void calibrateCallerDetection() {
+        Class<? extends SpoofedLoginResult> fastest = CallerDetectionCalibration.calibrate(getLogger());
+        if (fastest == null) {
+            getLogger().warning("Calibration: no caller detection strategy passed verification, using " + SpoofedLoginResult.getImplementation().getSimpleName());
+        } else {
+            try {
+                SpoofedLoginResult.setImplementation(fastest);
+                getLogger().info("Calibration: using " + fastest.getSimpleName());
+            } catch (NoSuchMethodException e) {
+                getLogger().log(Level.SEVERE, "Unable to use " + fastest.getSimpleName(), e);
+            }
+        }
+
+        // don't include the calibration calls in the metrics
+        ProxyMetrics.INSTANCE.reset();
     }
 
     @EventHandler
     public void onLogin(LoginEvent e) {
         // inject our spoofed loginresult instance into the initial handler
         InitialHandler con = (InitialHandler) e.getConnection();
-        SpoofedLoginResult.inject(con, this.token);
+        SpoofedLoginResult.inject(con, this.tokenProperty);
     }
 
 }
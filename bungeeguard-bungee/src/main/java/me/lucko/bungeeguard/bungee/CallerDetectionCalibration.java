@@ -0,0 +1,221 @@
+/*
+ * This file is part of BungeeGuard, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.bungeeguard.bungee;
+
+import net.md_5.bungee.protocol.Property;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Benchmarks each {@link SpoofedLoginResult} implementation which works on the current
+ * JVM, in order to select the fastest one which correctly detects the caller of
+ * {@link SpoofedLoginResult#getProperties()}.
+ *
+ * Each implementation is called through its own {@link Probe}, so no call site sees
+ * more than one receiver type, and the implementations are measured in interleaved
+ * rounds, taking the median of each.
+ */
+final class CallerDetectionCalibration {
+
+    /** The implementations to try. */
+    private static final String[] IMPLEMENTATIONS = {
+            "me.lucko.bungeeguard.bungee.SpoofedLoginResultJava9",
+            "me.lucko.bungeeguard.bungee.SpoofedLoginResultJdkInternal",
+            "me.lucko.bungeeguard.bungee.SpoofedLoginResultReflection"
+    };
+
+    /** The probe used for each implementation, by index. */
+    private static final Probe[] PROBES = {new FirstProbe(), new SecondProbe(), new ThirdProbe()};
+
+    /** The number of calls made before measuring, to allow the JIT to compile the call path. */
+    private static final int WARMUP_ITERATIONS = 10000;
+    /** The number of calls to measure in each round. */
+    private static final int ITERATIONS = 10000;
+    /** The number of measured rounds. */
+    private static final int ROUNDS = 5;
+
+    // written to during benchmarks, so the calls can't be optimised away
+    private static volatile int sink;
+
+    private CallerDetectionCalibration() {
+
+    }
+
+    /**
+     * Benchmarks each implementation, logging the measured cost of each.
+     *
+     * @param logger the logger
+     * @return the fastest working implementation, or null if none work
+     */
+    static Class<? extends SpoofedLoginResult> calibrate(Logger logger) {
+        Property token = new Property("bungeeguard-calibration", "", "");
+
+        List<Candidate> candidates = new ArrayList<>();
+        for (int i = 0; i < IMPLEMENTATIONS.length; i++) {
+            String className = IMPLEMENTATIONS[i];
+            String name = className.substring(className.lastIndexOf('.') + 1);
+            Probe probe = PROBES[i];
+
+            try {
+                Class<? extends SpoofedLoginResult> implClass = Class.forName(className).asSubclass(SpoofedLoginResult.class);
+                if (!verify(implClass, probe, token)) {
+                    logger.info("Calibration: " + name + " does not detect the caller correctly, skipping");
+                    continue;
+                }
+
+                SpoofedLoginResult instance = createTrusting(implClass, token, probe.getClass());
+                sink = probe.run(instance, WARMUP_ITERATIONS);
+                candidates.add(new Candidate(name, implClass, instance, probe));
+            } catch (Throwable e) {
+                // e.g. the class requires a newer Java version, or access to jdk.internal is denied
+                logger.info("Calibration: " + name + " is unavailable (" + e + ")");
+            }
+        }
+
+        double[][] costs = new double[candidates.size()][ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < candidates.size(); i++) {
+                Candidate candidate = candidates.get(i);
+                long start = System.nanoTime();
+                sink = candidate.probe.run(candidate.instance, ITERATIONS);
+                costs[i][round] = (double) (System.nanoTime() - start) / ITERATIONS;
+            }
+        }
+
+        Class<? extends SpoofedLoginResult> fastest = null;
+        double fastestCost = Double.MAX_VALUE;
+        for (int i = 0; i < candidates.size(); i++) {
+            Candidate candidate = candidates.get(i);
+            Arrays.sort(costs[i]);
+            double cost = costs[i][ROUNDS / 2];
+
+            logger.info("Calibration: " + candidate.name + " costs " + String.format("%.1f", cost) + "ns per call" +
+                    " (median of " + ROUNDS + " rounds, " + String.format("%.1f", costs[i][0]) + "-" + String.format("%.1f", costs[i][ROUNDS - 1]) + "ns)");
+            if (cost < fastestCost) {
+                fastest = candidate.implClass;
+                fastestCost = cost;
+            }
+        }
+
+        return fastest;
+    }
+
+    private static boolean verify(Class<? extends SpoofedLoginResult> implClass, Probe probe, Property token) throws ReflectiveOperationException {
+        // an instance which trusts the probe should only include the token when called by the probe
+        SpoofedLoginResult probeTrusted = createTrusting(implClass, token, probe.getClass());
+
+        Property[] fromProbe = probe.getProperties(probeTrusted);
+        Property[] fromOther = probeTrusted.getProperties();
+        if (fromProbe.length != 1 || fromProbe[0] != token || fromOther.length != 0) {
+            return false;
+        }
+
+        // and an instance which trusts the ServerConnector shouldn't include it for the probe
+        SpoofedLoginResult serverConnectorTrusted = implClass.getConstructor(Property.class).newInstance(token);
+        return probe.getProperties(serverConnectorTrusted).length == 0;
+    }
+
+    private static SpoofedLoginResult createTrusting(Class<? extends SpoofedLoginResult> implClass, Property token, Class<?> trustedCaller) throws ReflectiveOperationException {
+        return implClass.getDeclaredConstructor(Property.class, Class.class).newInstance(token, trustedCaller);
+    }
+
+    private static final class Candidate {
+        private final String name;
+        private final Class<? extends SpoofedLoginResult> implClass;
+        private final SpoofedLoginResult instance;
+        private final Probe probe;
+
+        Candidate(String name, Class<? extends SpoofedLoginResult> implClass, SpoofedLoginResult instance, Probe probe) {
+            this.name = name;
+            this.implClass = implClass;
+            this.instance = instance;
+            this.probe = probe;
+        }
+    }
+
+    /**
+     * Stands in for the ServerConnector when verifying & benchmarking caller detection.
+     *
+     * The subclasses are identical, but each has its own copy of the calls to
+     * {@link SpoofedLoginResult#getProperties()}, so the JIT profiles them separately.
+     */
+    private abstract static class Probe {
+        abstract Property[] getProperties(SpoofedLoginResult loginResult);
+
+        abstract int run(SpoofedLoginResult loginResult, int iterations);
+    }
+
+    private static final class FirstProbe extends Probe {
+        @Override
+        Property[] getProperties(SpoofedLoginResult loginResult) {
+            return loginResult.getProperties();
+        }
+
+        @Override
+        int run(SpoofedLoginResult loginResult, int iterations) {
+            int total = 0;
+            for (int i = 0; i < iterations; i++) {
+                total += loginResult.getProperties().length;
+            }
+            return total;
+        }
+    }
+
+    private static final class SecondProbe extends Probe {
+        @Override
+        Property[] getProperties(SpoofedLoginResult loginResult) {
+            return loginResult.getProperties();
+        }
+
+        @Override
+        int run(SpoofedLoginResult loginResult, int iterations) {
+            int total = 0;
+            for (int i = 0; i < iterations; i++) {
+                total += loginResult.getProperties().length;
+            }
+            return total;
+        }
+    }
+
+    private static final class ThirdProbe extends Probe {
+        @Override
+        Property[] getProperties(SpoofedLoginResult loginResult) {
+            return loginResult.getProperties();
+        }
+
+        @Override
+        int run(SpoofedLoginResult loginResult, int iterations) {
+            int total = 0;
+            for (int i = 0; i < iterations; i++) {
+                total += loginResult.getProperties().length;
+            }
+            return total;
+        }
+    }
+}
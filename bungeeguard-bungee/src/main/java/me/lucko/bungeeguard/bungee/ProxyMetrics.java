@@ -0,0 +1,232 @@
+/*
+ * This file is part of BungeeGuard, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.bungeeguard.bungee;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Low overhead instrumentation of {@link SpoofedLoginResult}.
+ *
+ * Counts calls to {@link SpoofedLoginResult#getProperties()}, records the cost of the
+ * caller check and of {@link SpoofedLoginResult#inject}, and keeps a histogram of the
+ * classes calling getProperties, sampled from a fraction of calls.
+ */
+final class ProxyMetrics {
+
+    /** The shared instance, recorded to by all {@link SpoofedLoginResult}s. */
+    static final ProxyMetrics INSTANCE = new ProxyMetrics();
+
+    /** Caller classes are recorded for one in every SAMPLE_RATE calls. */
+    private static final int SAMPLE_RATE = 16;
+    /** The maximum number of distinct caller classes to track. */
+    private static final int MAX_CALLERS = 64;
+    /** The number of callers to include in the summary. */
+    private static final int TOP_CALLERS = 10;
+
+    private final LongAdder getPropertiesCalls = new LongAdder();
+    private final LongAdder tokenInjections = new LongAdder();
+    private final LatencyHistogram callerCheck = new LatencyHistogram();
+    private final LatencyHistogram inject = new LatencyHistogram();
+    private final Map<String, LongAdder> sampledCallers = new ConcurrentHashMap<>();
+    private volatile long since = System.currentTimeMillis();
+
+    private ProxyMetrics() {
+
+    }
+
+    /**
+     * Records a call to getProperties.
+     *
+     * @param caller the detected caller class, or null if unknown
+     * @param injected if the token was included in the returned properties
+     * @param nanos the time taken to detect & check the caller
+     */
+    void recordGetProperties(Class<?> caller, boolean injected, long nanos) {
+        this.getPropertiesCalls.increment();
+        if (injected) {
+            this.tokenInjections.increment();
+        }
+        this.callerCheck.record(nanos);
+
+        if (ThreadLocalRandom.current().nextInt(SAMPLE_RATE) == 0) {
+            String name = caller == null ? "(unknown)" : caller.getName();
+            LongAdder counter = this.sampledCallers.get(name);
+            if (counter == null) {
+                if (this.sampledCallers.size() >= MAX_CALLERS) {
+                    name = "(other)";
+                }
+                counter = this.sampledCallers.computeIfAbsent(name, n -> new LongAdder());
+            }
+            counter.increment();
+        }
+    }
+
+    /**
+     * Records a call to inject.
+     *
+     * @param nanos the time taken
+     */
+    void recordInject(long nanos) {
+        this.inject.record(nanos);
+    }
+
+    /**
+     * Resets all recorded metrics.
+     */
+    void reset() {
+        this.getPropertiesCalls.reset();
+        this.tokenInjections.reset();
+        this.callerCheck.reset();
+        this.inject.reset();
+        this.sampledCallers.clear();
+        this.since = System.currentTimeMillis();
+    }
+
+    /**
+     * Gets a human readable summary of the recorded metrics.
+     *
+     * @return the summary, one entry per line
+     */
+    List<String> describe() {
+        long calls = this.getPropertiesCalls.sum();
+        long seconds = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - this.since));
+
+        List<String> lines = new ArrayList<>();
+        lines.add("Recording since " + new Date(this.since) + " (" + seconds + "s)");
+        lines.add("getProperties(): " + calls + " calls (" + String.format("%.1f", (double) calls / seconds) + "/sec), token included in " + this.tokenInjections.sum());
+        lines.add("Caller check: " + this.callerCheck.describe());
+        lines.add("inject(): " + this.inject.count() + " calls, " + this.inject.describe());
+
+        List<Map.Entry<String, LongAdder>> callers = new ArrayList<>(this.sampledCallers.entrySet());
+        callers.sort((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()));
+        lines.add("Callers (sampled 1 in " + SAMPLE_RATE + " calls):");
+        for (int i = 0; i < callers.size() && i < TOP_CALLERS; i++) {
+            long sampled = callers.get(i).getValue().sum();
+            lines.add("  - " + callers.get(i).getKey() + ": " + sampled + " (~" + (sampled * SAMPLE_RATE) + " calls)");
+        }
+        return lines;
+    }
+
+    /**
+     * Writes a summary of the recorded metrics to a file.
+     *
+     * @param file the file
+     * @throws IOException if an I/O error occurs
+     */
+    void writeTo(Path file) throws IOException {
+        // write to a temporary file first, so readers never see a partially written file
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, describe(), StandardCharsets.UTF_8);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * A histogram of durations, with power of two sized buckets.
+     *
+     * Each bucket is a separate {@link LongAdder}, so threads recording concurrently
+     * don't contend on the same cache line.
+     */
+    private static final class LatencyHistogram {
+        private final LongAdder[] buckets = new LongAdder[64];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+
+        LatencyHistogram() {
+            for (int i = 0; i < this.buckets.length; i++) {
+                this.buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            // bucket i holds durations in the range [2^(i-1), 2^i)
+            this.buckets[64 - Long.numberOfLeadingZeros(Math.max(0, nanos))].increment();
+            this.count.increment();
+            this.totalNanos.add(nanos);
+        }
+
+        void reset() {
+            for (LongAdder bucket : this.buckets) {
+                bucket.reset();
+            }
+            this.count.reset();
+            this.totalNanos.reset();
+        }
+
+        long count() {
+            return this.count.sum();
+        }
+
+        /**
+         * Gets an upper bound for the given percentile.
+         *
+         * @param percentile the percentile, between 0 and 1
+         * @return the upper bound of the bucket containing the percentile, in nanoseconds
+         */
+        long percentile(double percentile) {
+            long[] counts = new long[this.buckets.length];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = this.buckets[i].sum();
+                total += counts[i];
+            }
+
+            long target = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return i == 0 ? 0 : (1L << i) - 1;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        String describe() {
+            long count = this.count.sum();
+            if (count == 0) {
+                return "no samples";
+            }
+            double mean = (double) this.totalNanos.sum() / count;
+            return "mean " + formatMicros(mean) + ", p99 <= " + formatMicros(percentile(0.99));
+        }
+
+        private static String formatMicros(double nanos) {
+            return String.format("%.1fus", nanos / 1000.0);
+        }
+    }
+}
@@ -43,8 +43,11 @@ import java.util.Arrays;
  */
 abstract class SpoofedLoginResult extends LoginResult {
     private static final Field PROFILE_FIELD;
-    private static final Constructor<? extends SpoofedLoginResult> OFFLINE_MODE_IMPL;
-    private static final Constructor<? extends SpoofedLoginResult> ONLINE_MODE_IMPL;
+
+    // not final - may be replaced by the fastest implementation after calibration,
+    // before any players are able to connect
+    private static Constructor<? extends SpoofedLoginResult> offlineModeImpl;
+    private static Constructor<? extends SpoofedLoginResult> onlineModeImpl;
 
     static {
         Class<? extends SpoofedLoginResult> implClass;
@@ -65,23 +68,43 @@ abstract class SpoofedLoginResult extends LoginResult {
             PROFILE_FIELD = InitialHandler.class.getDeclaredField("loginProfile");
             PROFILE_FIELD.setAccessible(true);
 
-            OFFLINE_MODE_IMPL = implClass.getConstructor(String.class);
-            ONLINE_MODE_IMPL = implClass.getConstructor(LoginResult.class, String.class);
+            setImplementation(implClass);
         } catch (ReflectiveOperationException e) {
             throw new ExceptionInInitializerError(e);
         }
     }
 
-    static void inject(InitialHandler handler, String token) {
+    /**
+     * Sets the implementation used by {@link #inject(InitialHandler, Property)}.
+     *
+     * @param implClass the implementation class
+     * @throws NoSuchMethodException if the class does not have the expected constructors
+     */
+    static void setImplementation(Class<? extends SpoofedLoginResult> implClass) throws NoSuchMethodException {
+        offlineModeImpl = implClass.getConstructor(Property.class);
+        onlineModeImpl = implClass.getConstructor(LoginResult.class, Property.class);
+    }
+
+    /**
+     * Gets the implementation used by {@link #inject(InitialHandler, Property)}.
+     *
+     * @return the implementation class
+     */
+    static Class<? extends SpoofedLoginResult> getImplementation() {
+        return offlineModeImpl.getDeclaringClass();
+    }
+
+    static void inject(InitialHandler handler, Property token) {
+        long start = System.nanoTime();
         LoginResult profile = handler.getLoginProfile();
         LoginResult newProfile;
 
         try {
             // profile is null for offline mode servers
             if (profile == null) {
-                newProfile = OFFLINE_MODE_IMPL.newInstance(token);
+                newProfile = offlineModeImpl.newInstance(token);
             } else {
-                newProfile = ONLINE_MODE_IMPL.newInstance(profile, token);
+                newProfile = onlineModeImpl.newInstance(profile, token);
             }
         } catch (ReflectiveOperationException e) {
             throw new RuntimeException(e);
@@ -92,11 +115,13 @@ abstract class SpoofedLoginResult extends LoginResult {
         } catch (IllegalAccessException e) {
             throw new RuntimeException(e);
         }
+        ProxyMetrics.INSTANCE.recordInject(System.nanoTime() - start);
     }
 
     private static boolean classExists(String className) {
         try {
-            Class.forName(className);
+            // don't initialize the class, we only want to know if it's there
+            Class.forName(className, false, SpoofedLoginResult.class.getClassLoader());
             return true;
         } catch (ClassNotFoundException e) {
             return false;
@@ -107,25 +132,45 @@ abstract class SpoofedLoginResult extends LoginResult {
     private final Property[] bungeeGuardTokenArray;
     private final boolean offline;
 
+    // the class whose calls to getProperties should include the token
+    private final Class<?> trustedCaller;
+
     // online mode constructor
-    protected SpoofedLoginResult(LoginResult oldProfile, String bungeeGuardToken) {
+    protected SpoofedLoginResult(LoginResult oldProfile, Property bungeeGuardToken) {
         super(oldProfile.getId(), oldProfile.getName(), oldProfile.getProperties());
-        this.bungeeGuardToken = new Property("bungeeguard-token", bungeeGuardToken, "");
+        this.bungeeGuardToken = bungeeGuardToken;
         this.bungeeGuardTokenArray = new Property[]{this.bungeeGuardToken};
         this.offline = false;
+        this.trustedCaller = ServerConnector.class;
     }
 
     // offline mode constructor
-    protected SpoofedLoginResult(String bungeeGuardToken) {
+    protected SpoofedLoginResult(Property bungeeGuardToken) {
+        this(bungeeGuardToken, ServerConnector.class);
+    }
+
+    // calibration constructor - trusts a probe in place of the ServerConnector
+    SpoofedLoginResult(Property bungeeGuardToken, Class<?> trustedCaller) {
         super(null, null, new Property[0]);
-        this.bungeeGuardToken = new Property("bungeeguard-token", bungeeGuardToken, "");
+        this.bungeeGuardToken = bungeeGuardToken;
         this.bungeeGuardTokenArray = new Property[]{this.bungeeGuardToken};
         this.offline = true;
+        this.trustedCaller = trustedCaller;
     }
 
-    protected Property[] getSpoofedProperties(Class<?> caller) {
+    /**
+     * Gets the properties to return to the given caller.
+     *
+     * @param caller the class calling {@link #getProperties()}
+     * @param startNanos the value of {@link System#nanoTime()} before the caller was detected
+     * @return the properties
+     */
+    protected Property[] getSpoofedProperties(Class<?> caller, long startNanos) {
         // if the getProperties method is being called by the server connector, include our token in the properties
-        if (caller == ServerConnector.class) {
+        boolean trusted = caller == this.trustedCaller;
+        ProxyMetrics.INSTANCE.recordGetProperties(caller, trusted, System.nanoTime() - startNanos);
+
+        if (trusted) {
             return addTokenProperty(super.getProperties());
         } else {
             return super.getProperties();
@@ -33,18 +33,24 @@ import net.md_5.bungee.protocol.Property;
 public class SpoofedLoginResultJdkInternal extends SpoofedLoginResult {
 
     // online mode constructor
-    public SpoofedLoginResultJdkInternal(LoginResult oldProfile, String bungeeGuardToken) {
+    public SpoofedLoginResultJdkInternal(LoginResult oldProfile, Property bungeeGuardToken) {
         super(oldProfile, bungeeGuardToken);
     }
 
     // offline mode constructor
-    public SpoofedLoginResultJdkInternal(String bungeeGuardToken) {
+    public SpoofedLoginResultJdkInternal(Property bungeeGuardToken) {
         super(bungeeGuardToken);
     }
 
+    // calibration constructor
+    SpoofedLoginResultJdkInternal(Property bungeeGuardToken, Class<?> trustedCaller) {
+        super(bungeeGuardToken, trustedCaller);
+    }
+
     @Override
     public Property[] getProperties() {
+        long start = System.nanoTime();
         Class<?> caller = Reflection.getCallerClass();
-        return getSpoofedProperties(caller);
+        return getSpoofedProperties(caller, start);
     }
 }
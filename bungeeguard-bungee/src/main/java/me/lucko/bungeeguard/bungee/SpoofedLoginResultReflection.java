@@ -31,17 +31,23 @@ import net.md_5.bungee.protocol.Property;
 public class SpoofedLoginResultReflection extends SpoofedLoginResult {
 
     // online mode constructor
-    public SpoofedLoginResultReflection(LoginResult oldProfile, String bungeeGuardToken) {
+    public SpoofedLoginResultReflection(LoginResult oldProfile, Property bungeeGuardToken) {
         super(oldProfile, bungeeGuardToken);
     }
 
     // offline mode constructor
-    public SpoofedLoginResultReflection(String bungeeGuardToken) {
+    public SpoofedLoginResultReflection(Property bungeeGuardToken) {
         super(bungeeGuardToken);
     }
 
+    // calibration constructor
+    SpoofedLoginResultReflection(Property bungeeGuardToken, Class<?> trustedCaller) {
+        super(bungeeGuardToken, trustedCaller);
+    }
+
     @Override
     public Property[] getProperties() {
+        long start = System.nanoTime();
         StackTraceElement[] trace = new Exception().getStackTrace();
 
         Class<?> caller = null;
@@ -53,6 +59,6 @@ public class SpoofedLoginResultReflection extends SpoofedLoginResult {
             }
         }
 
-        return getSpoofedProperties(caller);
+        return getSpoofedProperties(caller, start);
     }
 }
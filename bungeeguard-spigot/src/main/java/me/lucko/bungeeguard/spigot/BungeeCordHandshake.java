@@ -44,13 +44,27 @@ import java.util.UUID;
 public class BungeeCordHandshake {
 
     /** The name of the BungeeGuard auth token. */
-    private static final String BUNGEEGUARD_TOKEN_NAME = "bungeeguard-token";
+    static final String BUNGEEGUARD_TOKEN_NAME = "bungeeguard-token";
+    /** The name of the BungeeGuard auth token, in its compact form. */
+    static final String COMPACT_TOKEN_NAME = "bgt";
     /** The key used to define the name of properties in the handshake. */
-    private static final String PROPERTY_NAME_KEY = "name";
+    static final String PROPERTY_NAME_KEY = "name";
     /** The key used to define the value of properties in the handshake. */
-    private static final String PROPERTY_VALUE_KEY = "value";
+    static final String PROPERTY_VALUE_KEY = "value";
     /** The maximum allowed length of the handshake. */
-    private static final int HANDSHAKE_LENGTH_LIMIT = 2500;
+    static final int HANDSHAKE_LENGTH_LIMIT = 2500;
+    /** The maximum nesting depth of the properties JSON. */
+    private static final int PROPERTIES_DEPTH_LIMIT = 2;
+    /** The maximum number of properties (JSON objects) in the handshake. */
+    private static final int PROPERTIES_COUNT_LIMIT = 16;
+    /** The maximum number of values (strings, numbers, etc) in the properties JSON. */
+    private static final int PROPERTIES_VALUE_LIMIT = 128;
+    /** The maximum length of a string in the properties JSON. */
+    private static final int PROPERTIES_STRING_LENGTH_LIMIT = 2048;
+    /** The maximum length of a number or other literal in the properties JSON. */
+    private static final int PROPERTIES_LITERAL_LENGTH_LIMIT = 32;
+    /** The maximum number of escape sequences in the properties JSON. */
+    private static final int PROPERTIES_ESCAPE_LIMIT = 64;
 
     /** Shared Gson instance. */
     private static final Gson GSON = new Gson();
@@ -66,15 +80,28 @@ public class BungeeCordHandshake {
      * @return the handshake result
      */
     public static BungeeCordHandshake decodeAndVerify(String handshake, TokenStore tokenStore) {
+        return decodeAndVerify(handshake, tokenStore, null);
+    }
+
+    /**
+     * Decodes a BungeeCord handshake, additionally ensuring it contains a
+     * BungeeGuard token allowed by the {@link TokenStore}.
+     *
+     * @param handshake the handshake data
+     * @param tokenStore the token store
+     * @param cache the properties cache to use, or null
+     * @return the handshake result
+     */
+    public static BungeeCordHandshake decodeAndVerify(String handshake, TokenStore tokenStore, PropertiesCache cache) {
         try {
-            return decodeAndVerify0(handshake, tokenStore);
+            return decodeAndVerify0(handshake, tokenStore, cache);
         } catch (Exception e) {
-            new Exception("Failed to decode handshake", e).printStackTrace();
-            return new Fail(Fail.Reason.INVALID_HANDSHAKE, encodeBase64(handshake));
+            // leave logging to the caller, which knows if we're in lockdown
+            return new Fail(Fail.Reason.INVALID_HANDSHAKE, encodeBase64(handshake), e);
         }
     }
 
-    private static BungeeCordHandshake decodeAndVerify0(String handshake, TokenStore tokenStore) throws Exception {
+    private static BungeeCordHandshake decodeAndVerify0(String handshake, TokenStore tokenStore, PropertiesCache cache) throws Exception {
         if (tokenStore.isUsingDefaultConfig()) {
             return new Fail(Fail.Reason.INCORRECT_TOKEN, "Allowed tokens have not been configured! Please refer to https://github.com/lucko/BungeeGuard/blob/master/INSTALLATION.md for help.");
         }
@@ -98,20 +125,37 @@ public class BungeeCordHandshake {
             return new Fail(Fail.Reason.NO_TOKEN, connectionDescription);
         }
 
+        // fast path: the properties segment is the same as a recent connection
+        PropertiesCache.Entry cached = cache == null ? null : cache.get(split[3]);
+        if (cached != null) {
+            if (!isAllowed(tokenStore, cached.token(), cached.isCompactToken())) {
+                return new Fail(Fail.Reason.INCORRECT_TOKEN, connectionDescription + " - " + encodeBase64(cached.token()));
+            }
+            return new Success(serverHostname, socketAddressHostname, uniqueId, cached.propertiesJson());
+        }
+
+        String complexity = checkPropertiesComplexity(split[3]);
+        if (complexity != null) {
+            return new Fail(Fail.Reason.INVALID_HANDSHAKE, connectionDescription + " - properties " + complexity);
+        }
+
         List<JsonObject> properties = new LinkedList<>(GSON.fromJson(split[3], PROPERTY_LIST_TYPE));
         if (properties.isEmpty()) {
             return new Fail(Fail.Reason.NO_TOKEN, connectionDescription);
         }
 
         String bungeeGuardToken = null;
+        boolean compactToken = false;
         for (Iterator<JsonObject> iterator = properties.iterator(); iterator.hasNext(); ) {
             JsonObject property = iterator.next();
-            if (property.get(PROPERTY_NAME_KEY).getAsString().equals(BUNGEEGUARD_TOKEN_NAME)) {
+            String name = property.get(PROPERTY_NAME_KEY).getAsString();
+            if (name.equals(BUNGEEGUARD_TOKEN_NAME) || name.equals(COMPACT_TOKEN_NAME)) {
                 if (bungeeGuardToken != null) {
                     return new Fail(Fail.Reason.INCORRECT_TOKEN, connectionDescription + " - more than one token");
                 }
 
                 bungeeGuardToken = property.get(PROPERTY_VALUE_KEY).getAsString();
+                compactToken = name.equals(COMPACT_TOKEN_NAME);
                 iterator.remove();
             }
         }
@@ -120,14 +164,109 @@ public class BungeeCordHandshake {
             return new Fail(Fail.Reason.NO_TOKEN, connectionDescription);
         }
 
-        if (!tokenStore.isAllowed(bungeeGuardToken)) {
+        if (!isAllowed(tokenStore, bungeeGuardToken, compactToken)) {
             return new Fail(Fail.Reason.INCORRECT_TOKEN, connectionDescription + " - " + encodeBase64(bungeeGuardToken));
         }
 
         String newPropertiesString = GSON.toJson(properties, PROPERTY_LIST_TYPE);
+        if (cache != null) {
+            cache.put(split[3], bungeeGuardToken, compactToken, newPropertiesString);
+        }
         return new Success(serverHostname, socketAddressHostname, uniqueId, newPropertiesString);
     }
     
+    /**
+     * Gets if a token found in the handshake is allowed by the {@link TokenStore}.
+     *
+     * @param tokenStore the token store
+     * @param token the token
+     * @param compact if the token is in its compact form
+     * @return true if allowed
+     */
+    static boolean isAllowed(TokenStore tokenStore, String token, boolean compact) {
+        return compact ? tokenStore.isAllowedCompact(token) : tokenStore.isAllowed(token);
+    }
+
+    /**
+     * Performs a cheap scan of the properties JSON, to reject input which would be
+     * expensive to parse before it reaches Gson.
+     *
+     * This does not validate the JSON - malformed input is left for Gson to reject.
+     *
+     * @param json the properties json
+     * @return a description of the limit exceeded, or null if the json is acceptable
+     */
+    static String checkPropertiesComplexity(String json) {
+        int depth = 0;
+        int properties = 0;
+        int values = 0;
+        int escapes = 0;
+
+        int length = json.length();
+        for (int i = 0; i < length; i++) {
+            char c = json.charAt(i);
+            switch (c) {
+                case '{':
+                    if (++properties > PROPERTIES_COUNT_LIMIT) {
+                        return "count > " + PROPERTIES_COUNT_LIMIT;
+                    }
+                    // fall through
+                case '[':
+                    if (++depth > PROPERTIES_DEPTH_LIMIT) {
+                        return "depth > " + PROPERTIES_DEPTH_LIMIT;
+                    }
+                    break;
+                case '}':
+                case ']':
+                    depth--;
+                    break;
+                case ',':
+                case ':':
+                case ' ':
+                case '\t':
+                case '\r':
+                case '\n':
+                    break;
+                case '"': {
+                    int start = i + 1;
+                    for (i = start; i < length; i++) {
+                        char ch = json.charAt(i);
+                        if (ch == '\\') {
+                            if (++escapes > PROPERTIES_ESCAPE_LIMIT) {
+                                return "escape sequences > " + PROPERTIES_ESCAPE_LIMIT;
+                            }
+                            i++;
+                        } else if (ch == '"') {
+                            break;
+                        }
+                    }
+                    if (i - start > PROPERTIES_STRING_LENGTH_LIMIT) {
+                        return "string length > " + PROPERTIES_STRING_LENGTH_LIMIT;
+                    }
+                    if (++values > PROPERTIES_VALUE_LIMIT) {
+                        return "values > " + PROPERTIES_VALUE_LIMIT;
+                    }
+                    break;
+                }
+                default: {
+                    // a number, boolean, null or something invalid
+                    int start = i;
+                    while (i + 1 < length && ",:[]{}\" \t\r\n".indexOf(json.charAt(i + 1)) == -1) {
+                        i++;
+                    }
+                    if (i + 1 - start > PROPERTIES_LITERAL_LENGTH_LIMIT) {
+                        return "literal length > " + PROPERTIES_LITERAL_LENGTH_LIMIT;
+                    }
+                    if (++values > PROPERTIES_VALUE_LIMIT) {
+                        return "values > " + PROPERTIES_VALUE_LIMIT;
+                    }
+                    break;
+                }
+            }
+        }
+        return null;
+    }
+
     public static String encodeBase64(String s) {
         return Base64.getEncoder().encodeToString(s.getBytes(StandardCharsets.UTF_8));
     }
@@ -180,10 +319,16 @@ public class BungeeCordHandshake {
     public static final class Fail extends BungeeCordHandshake {
         private final Reason reason;
         private final String connectionDescription;
+        private final Throwable cause;
 
         Fail(Reason reason, String connectionDescription) {
+            this(reason, connectionDescription, null);
+        }
+
+        Fail(Reason reason, String connectionDescription, Throwable cause) {
             this.reason = reason;
             this.connectionDescription = connectionDescription;
+            this.cause = cause;
         }
 
         public Reason reason() {
@@ -194,6 +339,15 @@ public class BungeeCordHandshake {
             return this.connectionDescription;
         }
 
+        /**
+         * Gets the exception thrown whilst decoding the handshake, if any.
+         *
+         * @return the cause, or null
+         */
+        public Throwable cause() {
+            return this.cause;
+        }
+
         public enum Reason {
             INVALID_HANDSHAKE, NO_TOKEN, INCORRECT_TOKEN
         }
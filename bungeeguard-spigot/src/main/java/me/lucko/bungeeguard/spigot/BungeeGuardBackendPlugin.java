@@ -26,7 +26,11 @@
 package me.lucko.bungeeguard.spigot;
 
 import me.lucko.bungeeguard.backend.BungeeGuardBackend;
+import me.lucko.bungeeguard.backend.HostBlocklist;
+import me.lucko.bungeeguard.backend.LockdownMonitor;
+import me.lucko.bungeeguard.backend.StartupBenchmark;
 import me.lucko.bungeeguard.backend.TokenStore;
+import me.lucko.bungeeguard.backend.Warmup;
 import me.lucko.bungeeguard.spigot.listener.PaperHandshakeListener;
 import me.lucko.bungeeguard.spigot.listener.ProtocolHandshakeListener;
 
@@ -36,7 +40,14 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.command.ConsoleCommandSender;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
 /**
  * Simple plugin which overrides the BungeeCord handshake protocol, and cancels all
@@ -47,12 +58,42 @@ import java.util.List;
 public class BungeeGuardBackendPlugin extends JavaPlugin implements BungeeGuardBackend {
 
     private TokenStore tokenStore;
+    private LockdownMonitor lockdown;
+    private HostBlocklist blocklist;
+    private PropertiesCache propertiesCache;
+    private HandshakeDecoder decoder;
+    private ShadowHandshakeDecoder shadowDecoder;
+    private Warmup warmup;
 
     @Override
     public void onEnable() {
+        StartupBenchmark benchmark = StartupBenchmark.start();
+
         saveDefaultConfig();
         this.tokenStore = new TokenStore(this);
         this.tokenStore.load();
+        this.lockdown = new LockdownMonitor(this);
+        this.lockdown.load();
+        this.blocklist = HostBlocklist.load(this);
+
+        if (getConfig().getBoolean("properties-cache.enabled", true)) {
+            int size = getConfig().getInt("properties-cache.size", 256);
+            int ttl = getConfig().getInt("properties-cache.ttl-seconds", 60);
+            this.propertiesCache = new PropertiesCache(size, ttl, TimeUnit.SECONDS);
+            this.decoder = HandshakeDecoder.legacy(this.propertiesCache);
+        } else {
+            this.decoder = HandshakeDecoder.LEGACY;
+        }
+
+        if (getConfig().getBoolean("decoder-shadow.enabled", false)) {
+            double sampleRate = getConfig().getDouble("decoder-shadow.sample-rate", 0.05);
+            getLogger().info("Shadowing " + (sampleRate * 100) + "% of handshakes with the candidate decoder.");
+
+            this.shadowDecoder = new ShadowHandshakeDecoder(this.decoder, HandshakeDecoder.LEGACY, IndexedHandshakeDecoder.INSTANCE, sampleRate);
+            this.decoder = this.shadowDecoder;
+        }
+
+        this.warmup = new Warmup(this);
 
         if (!getServer().spigot().getConfig().getBoolean("settings.bungeecord", false)) {
             getLogger().severe("------------------------------------------------------------");
@@ -65,17 +106,18 @@ public class BungeeGuardBackendPlugin extends JavaPlugin implements BungeeGuardB
             return;
         }
 
+        // the listener classes are only referenced via static methods, so only the
+        // implementation for the detected platform (and its dependencies) is loaded
+        String platform;
         if (isPaperHandshakeEvent()) {
             getLogger().info("Using Paper's PlayerHandshakeEvent to listen for connections.");
-
-            PaperHandshakeListener listener = new PaperHandshakeListener(this, this.tokenStore);
-            getServer().getPluginManager().registerEvents(listener, this);
+            PaperHandshakeListener.register(this, this.tokenStore, this.lockdown, this.blocklist, this.decoder);
+            platform = "Paper";
 
         } else if (hasProtocolLib()) {
             getLogger().info("Using ProtocolLib to listen for connections.");
-
-            ProtocolHandshakeListener listener = new ProtocolHandshakeListener(this, this.tokenStore);
-            listener.registerAdapter(this);
+            ProtocolHandshakeListener.register(this, this.tokenStore, this.lockdown, this.blocklist, this.decoder);
+            platform = "ProtocolLib";
 
         } else {
             getLogger().severe("------------------------------------------------------------");
@@ -89,6 +131,32 @@ public class BungeeGuardBackendPlugin extends JavaPlugin implements BungeeGuardB
             }
             getLogger().severe("------------------------------------------------------------");
             getServer().shutdown();
+            return;
+        }
+
+        getLogger().info(benchmark.describe(platform));
+
+        if (getConfig().getBoolean("warmup.enabled", true)) {
+            startWarmup(getConfig().getInt("warmup.iterations", 5000));
+        } else {
+            this.warmup.start(0, i -> {});
+        }
+    }
+
+    @Override
+    public void onDisable() {
+        if (this.tokenStore != null) {
+            this.tokenStore.shutdown();
+        }
+        if (this.shadowDecoder != null) {
+            this.shadowDecoder.shutdown();
+        }
+        if (this.blocklist != null) {
+            try {
+                this.blocklist.close();
+            } catch (IOException e) {
+                getLogger().log(Level.WARNING, "Unable to close host blocklist", e);
+            }
         }
     }
 
@@ -99,17 +167,85 @@ public class BungeeGuardBackendPlugin extends JavaPlugin implements BungeeGuardB
             return true;
         }
 
+        if (args.length != 0 && args[0].equalsIgnoreCase("status")) {
+            sender.sendMessage(ChatColor.RED + "BungeeGuard status:");
+            sender.sendMessage(ChatColor.GRAY + this.warmup.describe());
+            sender.sendMessage(ChatColor.GRAY + this.tokenStore.getEphemeralTokens().describe());
+            sender.sendMessage(ChatColor.GRAY + this.lockdown.describe());
+            if (this.blocklist != null) {
+                sender.sendMessage(ChatColor.GRAY + this.blocklist.describe());
+            }
+            if (this.propertiesCache != null) {
+                sender.sendMessage(ChatColor.GRAY + this.propertiesCache.describe());
+            }
+            if (this.shadowDecoder != null) {
+                sender.sendMessage(ChatColor.GRAY + this.shadowDecoder.describe());
+                for (String mismatch : this.shadowDecoder.getRecentMismatches()) {
+                    sender.sendMessage(ChatColor.GRAY + "  - " + mismatch);
+                }
+            }
+            return true;
+        }
+
         if (args.length == 0 || !args[0].equalsIgnoreCase("reload")) {
             sender.sendMessage(ChatColor.RED + "Running BungeeGuard v" + getDescription().getVersion());
             sender.sendMessage(ChatColor.GRAY + "Use '/bungeeguard reload' to reload the configuration.");
+            sender.sendMessage(ChatColor.GRAY + "Use '/bungeeguard status' to view the current status.");
             return true;
         }
 
         this.tokenStore.reload();
+        this.lockdown.load();
         sender.sendMessage(ChatColor.RED + "BungeeGuard configuration reloaded.");
         return true;
     }
 
+    private void startWarmup(int iterations) {
+        // use separate decoder instances, so the synthetic handshakes don't
+        // skew the cache & shadow mode statistics
+        List<HandshakeDecoder> decoders = new ArrayList<>();
+        decoders.add(this.propertiesCache != null ? HandshakeDecoder.legacy(new PropertiesCache(16, 1, TimeUnit.MINUTES)) : HandshakeDecoder.LEGACY);
+        if (this.shadowDecoder != null) {
+            decoders.add(IndexedHandshakeDecoder.INSTANCE);
+        }
+
+        List<String> tokens = getTokens();
+        String[] handshakes = createSyntheticHandshakes(tokens.isEmpty() ? "" : tokens.get(0));
+
+        this.warmup.start(iterations, i -> {
+            String handshake = handshakes[i % handshakes.length];
+            for (HandshakeDecoder decoder : decoders) {
+                decoder.decode(handshake, this.tokenStore);
+            }
+        });
+    }
+
+    private static String[] createSyntheticHandshakes(String token) {
+        String uniqueId = UUID.randomUUID().toString().replace("-", "");
+        String prefix = "localhost\0" + "127.0.0.1\0" + uniqueId;
+        String textures = "{\"name\":\"textures\",\"value\":\"" + new String(new char[600]).replace('\0', 'A') + "\\u003d\",\"signature\":\"" + new String(new char[680]).replace('\0', 'B') + "\"}";
+        String otherTextures = textures.replace('A', 'C');
+        String validToken = "{\"name\":\"bungeeguard-token\",\"value\":\"" + token + "\",\"signature\":\"\"}";
+        String invalidToken = "{\"name\":\"bungeeguard-token\",\"value\":\"" + token + "-invalid\",\"signature\":\"\"}";
+        String compactToken = "{\"name\":\"bgt\",\"value\":\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(TokenStore.compact(token)) + "\"}";
+
+        return new String[]{
+                // valid
+                prefix + "\00[" + textures + "," + validToken + "]",
+                prefix + "\00[" + otherTextures + "," + validToken + "]",
+                prefix + "\00[" + validToken + "]",
+                prefix + "\00[" + textures + "," + compactToken + "]",
+                // invalid
+                prefix + "\00[" + textures + "," + invalidToken + "]",
+                prefix + "\00[" + textures + "]",
+                prefix + "\00[]",
+                prefix,
+                // malformed / too long
+                "localhost",
+                prefix + "\00[" + textures + "," + textures + "," + validToken + "]"
+        };
+    }
+
     @Override
     public String getMessage(String key) {
         return ChatColor.translateAlternateColorCodes('&', getConfig().getString(key));
@@ -120,6 +256,41 @@ public class BungeeGuardBackendPlugin extends JavaPlugin implements BungeeGuardB
         return getConfig().getStringList("allowed-tokens");
     }
 
+    @Override
+    public List<String> getStringList(String key) {
+        return getConfig().getStringList(key);
+    }
+
+    @Override
+    public String getString(String key, String def) {
+        return getConfig().getString(key, def);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean def) {
+        return getConfig().getBoolean(key, def);
+    }
+
+    @Override
+    public int getInt(String key, int def) {
+        return getConfig().getInt(key, def);
+    }
+
+    @Override
+    public Path getDataDirectory() {
+        return getDataFolder().toPath();
+    }
+
+    @Override
+    public void logInfo(String message) {
+        getLogger().info(message);
+    }
+
+    @Override
+    public void logWarning(String message) {
+        getLogger().warning(message);
+    }
+
     private static boolean isPaperHandshakeEvent() {
         return classExists("com.destroystokyo.paper.event.player.PlayerHandshakeEvent");
     }
@@ -134,7 +305,8 @@ public class BungeeGuardBackendPlugin extends JavaPlugin implements BungeeGuardB
 
     private static boolean classExists(String className) {
         try {
-            Class.forName(className);
+            // don't initialize the class, we only want to know if it's there
+            Class.forName(className, false, BungeeGuardBackendPlugin.class.getClassLoader());
             return true;
         } catch (ClassNotFoundException e) {
             return false;
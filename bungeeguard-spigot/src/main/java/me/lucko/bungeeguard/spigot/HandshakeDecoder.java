@@ -0,0 +1,59 @@
+/*
+ * This file is part of BungeeGuard, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.bungeeguard.spigot;
+
+import me.lucko.bungeeguard.backend.TokenStore;
+
+/**
+ * A strategy for decoding and verifying BungeeCord handshakes.
+ */
+@FunctionalInterface
+public interface HandshakeDecoder {
+
+    /** The original decoder, implemented by {@link BungeeCordHandshake#decodeAndVerify(String, TokenStore)}. */
+    HandshakeDecoder LEGACY = BungeeCordHandshake::decodeAndVerify;
+
+    /**
+     * Decodes a BungeeCord handshake, additionally ensuring it contains a
+     * BungeeGuard token allowed by the {@link TokenStore}.
+     *
+     * @param handshake the handshake data
+     * @param tokenStore the token store
+     * @return the handshake result
+     */
+    BungeeCordHandshake decode(String handshake, TokenStore tokenStore);
+
+    /**
+     * Creates a legacy decoder which caches decoded properties.
+     *
+     * @param cache the cache
+     * @return the decoder
+     */
+    static HandshakeDecoder legacy(PropertiesCache cache) {
+        return (handshake, tokenStore) -> BungeeCordHandshake.decodeAndVerify(handshake, tokenStore, cache);
+    }
+
+}
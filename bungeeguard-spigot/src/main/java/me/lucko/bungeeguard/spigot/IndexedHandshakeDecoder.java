@@ -0,0 +1,177 @@
+/*
+ * This file is part of BungeeGuard, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.bungeeguard.spigot;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import me.lucko.bungeeguard.backend.TokenStore;
+
+import java.util.UUID;
+
+/**
+ * A rewritten {@link HandshakeDecoder}, which splits the handshake by scanning for
+ * separators and works directly with the parsed JSON tree, avoiding the regular
+ * expressions and intermediate collections used by the {@link HandshakeDecoder#LEGACY legacy} decoder.
+ *
+ * Should produce results identical to the legacy decoder - use the shadow mode
+ * ({@link ShadowHandshakeDecoder}) to check before switching over.
+ */
+public final class IndexedHandshakeDecoder implements HandshakeDecoder {
+    public static final IndexedHandshakeDecoder INSTANCE = new IndexedHandshakeDecoder();
+
+    /** The maximum number of segments in a handshake. */
+    private static final int MAX_SEGMENTS = 4;
+
+    /** Shared Gson instance. */
+    private static final Gson GSON = new Gson();
+    /** Shared JsonParser instance. */
+    private static final JsonParser PARSER = new JsonParser();
+
+    private IndexedHandshakeDecoder() {
+
+    }
+
+    @Override
+    public BungeeCordHandshake decode(String handshake, TokenStore tokenStore) {
+        try {
+            return decode0(handshake, tokenStore);
+        } catch (Exception e) {
+            // leave logging to the caller, which knows if we're in lockdown
+            return new BungeeCordHandshake.Fail(BungeeCordHandshake.Fail.Reason.INVALID_HANDSHAKE, BungeeCordHandshake.encodeBase64(handshake), e);
+        }
+    }
+
+    private static BungeeCordHandshake decode0(String handshake, TokenStore tokenStore) {
+        if (tokenStore.isUsingDefaultConfig()) {
+            return new BungeeCordHandshake.Fail(BungeeCordHandshake.Fail.Reason.INCORRECT_TOKEN, "Allowed tokens have not been configured! Please refer to https://github.com/lucko/BungeeGuard/blob/master/INSTALLATION.md for help.");
+        }
+
+        if (handshake.length() > BungeeCordHandshake.HANDSHAKE_LENGTH_LIMIT) {
+            return new BungeeCordHandshake.Fail(BungeeCordHandshake.Fail.Reason.INVALID_HANDSHAKE, "handshake length " + handshake.length() + " is > " + BungeeCordHandshake.HANDSHAKE_LENGTH_LIMIT);
+        }
+
+        String[] split = split(handshake);
+        if (split == null) {
+            return new BungeeCordHandshake.Fail(BungeeCordHandshake.Fail.Reason.INVALID_HANDSHAKE, BungeeCordHandshake.encodeBase64(handshake));
+        }
+
+        String serverHostname = split[0];
+        String socketAddressHostname = split[1];
+        UUID uniqueId = parseUniqueId(split[2]);
+
+        String connectionDescription = uniqueId + " @ " + BungeeCordHandshake.encodeBase64(socketAddressHostname);
+
+        if (split.length == 3) {
+            return new BungeeCordHandshake.Fail(BungeeCordHandshake.Fail.Reason.NO_TOKEN, connectionDescription);
+        }
+
+        String complexity = BungeeCordHandshake.checkPropertiesComplexity(split[3]);
+        if (complexity != null) {
+            return new BungeeCordHandshake.Fail(BungeeCordHandshake.Fail.Reason.INVALID_HANDSHAKE, connectionDescription + " - properties " + complexity);
+        }
+
+        JsonArray properties = PARSER.parse(split[3]).getAsJsonArray();
+        if (properties.size() == 0) {
+            return new BungeeCordHandshake.Fail(BungeeCordHandshake.Fail.Reason.NO_TOKEN, connectionDescription);
+        }
+
+        String bungeeGuardToken = null;
+        boolean compactToken = false;
+        JsonArray newProperties = new JsonArray();
+        for (JsonElement element : properties) {
+            JsonObject property = element.getAsJsonObject();
+            String name = property.get(BungeeCordHandshake.PROPERTY_NAME_KEY).getAsString();
+            if (name.equals(BungeeCordHandshake.BUNGEEGUARD_TOKEN_NAME) || name.equals(BungeeCordHandshake.COMPACT_TOKEN_NAME)) {
+                if (bungeeGuardToken != null) {
+                    return new BungeeCordHandshake.Fail(BungeeCordHandshake.Fail.Reason.INCORRECT_TOKEN, connectionDescription + " - more than one token");
+                }
+                bungeeGuardToken = property.get(BungeeCordHandshake.PROPERTY_VALUE_KEY).getAsString();
+                compactToken = name.equals(BungeeCordHandshake.COMPACT_TOKEN_NAME);
+            } else {
+                newProperties.add(property);
+            }
+        }
+
+        if (bungeeGuardToken == null) {
+            return new BungeeCordHandshake.Fail(BungeeCordHandshake.Fail.Reason.NO_TOKEN, connectionDescription);
+        }
+
+        if (!BungeeCordHandshake.isAllowed(tokenStore, bungeeGuardToken, compactToken)) {
+            return new BungeeCordHandshake.Fail(BungeeCordHandshake.Fail.Reason.INCORRECT_TOKEN, connectionDescription + " - " + BungeeCordHandshake.encodeBase64(bungeeGuardToken));
+        }
+
+        return new BungeeCordHandshake.Success(serverHostname, socketAddressHostname, uniqueId, GSON.toJson(newProperties));
+    }
+
+    /**
+     * Splits the handshake into its segments, following the same rules as
+     * {@link String#split(String)} (trailing empty segments are discarded).
+     *
+     * @param handshake the handshake
+     * @return the segments, or null if there are not 3 or 4 segments
+     */
+    private static String[] split(String handshake) {
+        // trailing empty segments are discarded, so ignore any trailing separators
+        int length = handshake.length();
+        while (length > 0 && handshake.charAt(length - 1) == '\0') {
+            length--;
+        }
+
+        String[] segments = new String[MAX_SEGMENTS];
+        int count = 0;
+        int start = 0;
+        while (true) {
+            int end = handshake.indexOf('\0', start);
+            if (end == -1 || end >= length) {
+                end = length;
+            }
+            if (count == MAX_SEGMENTS) {
+                return null;
+            }
+            segments[count++] = handshake.substring(start, end);
+            if (end == length) {
+                break;
+            }
+            start = end + 1;
+        }
+
+        if (count == 3) {
+            return new String[]{segments[0], segments[1], segments[2]};
+        }
+        return count == 4 ? segments : null;
+    }
+
+    private static UUID parseUniqueId(String uniqueId) {
+        if (uniqueId.length() == 32) {
+            uniqueId = uniqueId.substring(0, 8) + '-' + uniqueId.substring(8, 12) + '-' + uniqueId.substring(12, 16) + '-' + uniqueId.substring(16, 20) + '-' + uniqueId.substring(20);
+        }
+        return UUID.fromString(uniqueId);
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * This file is part of BungeeGuard, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.bungeeguard.spigot;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A small, bounded cache of decoded handshake properties.
+ *
+ * Players reconnect frequently (server switches, proxy hops, etc), and the
+ * properties segment of their handshake is usually identical each time. Caching
+ * the result of parsing & re-serializing it allows repeat connections to skip Gson
+ * entirely.
+ *
+ * Entries are keyed by the hash of the raw properties segment, and confirmed with
+ * a full equality check. The cache is direct-mapped: an entry simply replaces any
+ * other entry in the same slot.
+ */
+public class PropertiesCache {
+    private final AtomicReferenceArray<Entry> entries;
+    private final int mask;
+    private final long ttlNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public PropertiesCache(int size, long ttl, TimeUnit unit) {
+        // round up to a power of two
+        int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        this.entries = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    private int index(String rawProperties) {
+        int hash = rawProperties.hashCode();
+        return (hash ^ (hash >>> 16)) & this.mask;
+    }
+
+    /**
+     * Gets the cached entry for the given raw properties segment.
+     *
+     * @param rawProperties the raw properties segment of the handshake
+     * @return the entry, or null if not present
+     */
+    public Entry get(String rawProperties) {
+        Entry entry = this.entries.get(index(rawProperties));
+        if (entry != null && System.nanoTime() - entry.created < this.ttlNanos && entry.rawProperties.equals(rawProperties)) {
+            this.hits.increment();
+            return entry;
+        }
+        this.misses.increment();
+        return null;
+    }
+
+    /**
+     * Caches the result of decoding a raw properties segment.
+     *
+     * @param rawProperties the raw properties segment of the handshake
+     * @param token the BungeeGuard token found in the properties
+     * @param compactToken if the token is in its compact form
+     * @param propertiesJson the properties, re-serialized without the token
+     */
+    public void put(String rawProperties, String token, boolean compactToken, String propertiesJson) {
+        this.entries.set(index(rawProperties), new Entry(rawProperties, token, compactToken, propertiesJson, System.nanoTime()));
+    }
+
+    /**
+     * Gets a short, human readable summary of the cache performance.
+     *
+     * @return a description
+     */
+    public String describe() {
+        long hits = this.hits.sum();
+        long total = hits + this.misses.sum();
+        double ratio = total == 0 ? 0 : hits * 100d / total;
+        return String.format("Properties cache: %d hits / %d lookups (%.1f%% hit ratio)", hits, total, ratio);
+    }
+
+    public static final class Entry {
+        private final String rawProperties;
+        private final String token;
+        private final boolean compactToken;
+        private final String propertiesJson;
+        private final long created;
+
+        Entry(String rawProperties, String token, boolean compactToken, String propertiesJson, long created) {
+            this.rawProperties = rawProperties;
+            this.token = token;
+            this.compactToken = compactToken;
+            this.propertiesJson = propertiesJson;
+            this.created = created;
+        }
+
+        public String token() {
+            return this.token;
+        }
+
+        public boolean isCompactToken() {
+            return this.compactToken;
+        }
+
+        public String propertiesJson() {
+            return this.propertiesJson;
+        }
+    }
+
+}
@@ -0,0 +1,252 @@
+/*
+ * This file is part of BungeeGuard, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.bungeeguard.spigot;
+
+import com.google.gson.JsonParser;
+import me.lucko.bungeeguard.backend.TokenStore;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link HandshakeDecoder} which decodes using a primary decoder, but additionally
+ * passes a sample of handshakes through a reference decoder and a candidate decoder
+ * on a background thread, recording any differences between their results.
+ *
+ * The reference is timed & compared instead of the primary, as the primary may
+ * serve results from a {@link PropertiesCache} without decoding the handshake at all.
+ *
+ * Used to gain confidence in a new decoder implementation using real traffic, before
+ * switching over to it.
+ */
+public class ShadowHandshakeDecoder implements HandshakeDecoder {
+
+    /** The maximum number of comparisons waiting to be processed. */
+    private static final int QUEUE_SIZE = 256;
+    /** The number of recent mismatches to remember. */
+    private static final int RECENT_MISMATCHES = 5;
+
+    /** Shared JsonParser instance. */
+    private static final JsonParser PARSER = new JsonParser();
+
+    private final HandshakeDecoder primary;
+    private final HandshakeDecoder reference;
+    private final HandshakeDecoder candidate;
+    private final double sampleRate;
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder sampled = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder matches = new LongAdder();
+    private final LongAdder mismatches = new LongAdder();
+    private final LongAdder referenceNanos = new LongAdder();
+    private final LongAdder candidateNanos = new LongAdder();
+    private final Deque<String> recentMismatches = new ArrayDeque<>(); // guarded by itself
+
+    /**
+     * Creates a new shadow decoder.
+     *
+     * @param primary the decoder whose results are used
+     * @param reference an uncached decoder equivalent to the primary, to compare against
+     * @param candidate the decoder being evaluated
+     * @param sampleRate the fraction of handshakes to compare
+     */
+    public ShadowHandshakeDecoder(HandshakeDecoder primary, HandshakeDecoder reference, HandshakeDecoder candidate, double sampleRate) {
+        this.primary = primary;
+        this.reference = reference;
+        this.candidate = candidate;
+        this.sampleRate = sampleRate;
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE), r -> {
+            Thread thread = new Thread(r, "bungeeguard-shadow-decoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public BungeeCordHandshake decode(String handshake, TokenStore tokenStore) {
+        BungeeCordHandshake result = this.primary.decode(handshake, tokenStore);
+        if (ThreadLocalRandom.current().nextDouble() < this.sampleRate) {
+            try {
+                this.executor.execute(() -> compare(handshake, tokenStore));
+            } catch (RejectedExecutionException e) {
+                // the candidate isn't keeping up, or we're shutting down
+                this.skipped.increment();
+            }
+        }
+        return result;
+    }
+
+    private void compare(String handshake, TokenStore tokenStore) {
+        // both decoders run on this thread, so their latencies are comparable
+        long start = System.nanoTime();
+        BungeeCordHandshake expected;
+        try {
+            expected = this.reference.decode(handshake, tokenStore);
+        } catch (Throwable t) {
+            expected = null;
+        }
+        long referenceDuration = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        BungeeCordHandshake actual;
+        try {
+            actual = this.candidate.decode(handshake, tokenStore);
+        } catch (Throwable t) {
+            actual = null;
+        }
+        long candidateDuration = System.nanoTime() - start;
+
+        this.sampled.increment();
+        this.referenceNanos.add(referenceDuration);
+        this.candidateNanos.add(candidateDuration);
+
+        String difference = findDifference(expected, actual);
+        if (difference == null) {
+            this.matches.increment();
+        } else {
+            this.mismatches.increment();
+            synchronized (this.recentMismatches) {
+                if (this.recentMismatches.size() == RECENT_MISMATCHES) {
+                    this.recentMismatches.removeFirst();
+                }
+                this.recentMismatches.addLast(difference);
+            }
+        }
+    }
+
+    /**
+     * Compares two results, describing the first difference found.
+     *
+     * @param expected the reference result
+     * @param actual the candidate result
+     * @return a description of the difference, or null if the results are equivalent
+     */
+    private static String findDifference(BungeeCordHandshake expected, BungeeCordHandshake actual) {
+        if (expected instanceof BungeeCordHandshake.Fail && actual instanceof BungeeCordHandshake.Fail) {
+            if (((BungeeCordHandshake.Fail) expected).reason() == ((BungeeCordHandshake.Fail) actual).reason()) {
+                return null;
+            }
+            return "reason: reference=" + describe(expected) + ", candidate=" + describe(actual);
+        }
+
+        if (expected instanceof BungeeCordHandshake.Success && actual instanceof BungeeCordHandshake.Success) {
+            BungeeCordHandshake.Success a = (BungeeCordHandshake.Success) expected;
+            BungeeCordHandshake.Success b = (BungeeCordHandshake.Success) actual;
+            if (!a.serverHostname().equals(b.serverHostname())) {
+                return "server hostname: reference=" + BungeeCordHandshake.encodeBase64(a.serverHostname()) +
+                        ", candidate=" + BungeeCordHandshake.encodeBase64(b.serverHostname());
+            }
+            if (!a.socketAddressHostname().equals(b.socketAddressHostname())) {
+                return "socket address: reference=" + BungeeCordHandshake.encodeBase64(a.socketAddressHostname()) +
+                        ", candidate=" + BungeeCordHandshake.encodeBase64(b.socketAddressHostname());
+            }
+            if (!a.uniqueId().equals(b.uniqueId())) {
+                return "unique id: reference=" + a.uniqueId() + ", candidate=" + b.uniqueId();
+            }
+            if (!isEquivalentJson(a.propertiesJson(), b.propertiesJson())) {
+                return "properties (" + a.uniqueId() + "): reference=" + describeJson(a.propertiesJson()) +
+                        ", candidate=" + describeJson(b.propertiesJson());
+            }
+            return null;
+        }
+
+        return "result: reference=" + describe(expected) + ", candidate=" + describe(actual);
+    }
+
+    private static boolean isEquivalentJson(String a, String b) {
+        if (Objects.equals(a, b)) {
+            return true;
+        }
+        try {
+            return PARSER.parse(a).equals(PARSER.parse(b));
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static String describeJson(String json) {
+        return json == null ? "null" : json.length() + " chars " + BungeeCordHandshake.encodeBase64(json);
+    }
+
+    private static String describe(BungeeCordHandshake result) {
+        if (result instanceof BungeeCordHandshake.Success) {
+            return "Success(" + ((BungeeCordHandshake.Success) result).uniqueId() + ")";
+        } else if (result instanceof BungeeCordHandshake.Fail) {
+            BungeeCordHandshake.Fail fail = (BungeeCordHandshake.Fail) result;
+            return "Fail(" + fail.reason().name() + ", " + fail.describeConnection() + ")";
+        } else {
+            return "exception";
+        }
+    }
+
+    /**
+     * Gets a short, human readable summary of the comparison so far.
+     *
+     * @return a description
+     */
+    public String describe() {
+        long sampled = this.sampled.sum();
+        String latency;
+        if (sampled == 0) {
+            latency = "n/a";
+        } else {
+            double reference = this.referenceNanos.sum() / (double) sampled / 1000d;
+            double candidate = this.candidateNanos.sum() / (double) sampled / 1000d;
+            latency = String.format("reference (uncached) %.1fus, candidate %.1fus (%+.1fus)", reference, candidate, candidate - reference);
+        }
+
+        return "Decoder shadow mode: " + sampled + " compared, " +
+                this.matches.sum() + " matched, " +
+                this.mismatches.sum() + " mismatched, " +
+                this.skipped.sum() + " skipped - mean latency " + latency;
+    }
+
+    /**
+     * Gets a description of the most recent mismatches.
+     *
+     * @return the recent mismatches
+     */
+    public List<String> getRecentMismatches() {
+        synchronized (this.recentMismatches) {
+            return new ArrayList<>(this.recentMismatches);
+        }
+    }
+
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+}
@@ -27,9 +27,12 @@ package me.lucko.bungeeguard.spigot.listener;
 
 import com.destroystokyo.paper.event.player.PlayerHandshakeEvent;
 
+import me.lucko.bungeeguard.backend.HostBlocklist;
+import me.lucko.bungeeguard.backend.LockdownMonitor;
 import me.lucko.bungeeguard.backend.TokenStore;
 import me.lucko.bungeeguard.backend.listener.AbstractHandshakeListener;
 import me.lucko.bungeeguard.spigot.BungeeCordHandshake;
+import me.lucko.bungeeguard.spigot.HandshakeDecoder;
 
 import me.lucko.bungeeguard.spigot.BungeeGuardBackendPlugin;
 import org.bukkit.event.EventHandler;
@@ -57,28 +60,48 @@ public class PaperHandshakeListener extends AbstractHandshakeListener implements
     }
 
     private final Logger logger;
+    private final HandshakeDecoder decoder;
 
-    public PaperHandshakeListener(BungeeGuardBackendPlugin plugin, TokenStore tokenStore) {
-        super(plugin, tokenStore);
+    public static void register(BungeeGuardBackendPlugin plugin, TokenStore tokenStore, LockdownMonitor lockdown, HostBlocklist blocklist, HandshakeDecoder decoder) {
+        PaperHandshakeListener listener = new PaperHandshakeListener(plugin, tokenStore, lockdown, blocklist, decoder);
+        plugin.getServer().getPluginManager().registerEvents(listener, plugin);
+    }
+
+    public PaperHandshakeListener(BungeeGuardBackendPlugin plugin, TokenStore tokenStore, LockdownMonitor lockdown, HostBlocklist blocklist, HandshakeDecoder decoder) {
+        super(plugin, tokenStore, lockdown, blocklist);
         this.logger = plugin.getLogger();
+        this.decoder = decoder;
     }
 
     @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
     public void onHandshake(PlayerHandshakeEvent e) {
-        BungeeCordHandshake decoded = BungeeCordHandshake.decodeAndVerify(e.getOriginalHandshake(), this.tokenStore);
+        String host = this.blocklist != null ? getOriginalAddress(e) : null;
+        if (isBlocked(host)) {
+            // recently denied by another server on this host
+            e.setFailMessage("");
+            e.setFailed(true);
+            return;
+        }
+
+        BungeeCordHandshake decoded = this.decoder.decode(e.getOriginalHandshake(), this.tokenStore);
 
         if (decoded instanceof BungeeCordHandshake.Fail) {
             BungeeCordHandshake.Fail fail = (BungeeCordHandshake.Fail) decoded;
-            String ip = "";
-            if (getOriginalSocketAddressHostname != null) {
-                try {
-                    ip = getOriginalSocketAddressHostname.invoke(e) + " - ";
-                } catch (ReflectiveOperationException ex) {
-                    this.logger.log(Level.SEVERE, "Unable to get original address", ex);
-                }
+            recordBlocklistDenial(host);
+
+            if (this.lockdown.recordDenial()) {
+                // Paper always sends the fail message, so send as little as possible
+                e.setFailMessage("");
+                e.setFailed(true);
+                return;
             }
 
-            this.logger.warning("Denying connection from " + ip + fail.describeConnection() + " - reason: " + fail.reason().name());
+            if (host == null) {
+                host = getOriginalAddress(e);
+            }
+            String ip = host == null ? "" : host + " - ";
+
+            this.logger.log(Level.WARNING, "Denying connection from " + ip + fail.describeConnection() + " - reason: " + fail.reason().name(), fail.cause());
 
             if (fail.reason() == BungeeCordHandshake.Fail.Reason.INVALID_HANDSHAKE) {
                 e.setFailMessage(this.noDataKickMessage);
@@ -97,4 +120,16 @@ public class PaperHandshakeListener extends AbstractHandshakeListener implements
         e.setPropertiesJson(data.propertiesJson());
     }
 
+    private String getOriginalAddress(PlayerHandshakeEvent e) {
+        if (getOriginalSocketAddressHostname == null) {
+            return null;
+        }
+        try {
+            return (String) getOriginalSocketAddressHostname.invoke(e);
+        } catch (ReflectiveOperationException ex) {
+            this.logger.log(Level.SEVERE, "Unable to get original address", ex);
+            return null;
+        }
+    }
+
 }
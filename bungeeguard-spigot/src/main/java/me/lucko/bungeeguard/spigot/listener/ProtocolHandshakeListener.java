@@ -36,9 +36,13 @@ import com.comphenix.protocol.injector.temporary.TemporaryPlayerFactory;
 import com.comphenix.protocol.wrappers.WrappedChatComponent;
 
 import me.lucko.bungeeguard.backend.BungeeGuardBackend;
+import me.lucko.bungeeguard.backend.HostBlocklist;
+import me.lucko.bungeeguard.backend.LockdownMonitor;
 import me.lucko.bungeeguard.backend.TokenStore;
 import me.lucko.bungeeguard.backend.listener.AbstractHandshakeListener;
 import me.lucko.bungeeguard.spigot.BungeeCordHandshake;
+import me.lucko.bungeeguard.spigot.BungeeGuardBackendPlugin;
+import me.lucko.bungeeguard.spigot.HandshakeDecoder;
 import me.lucko.bungeeguard.spigot.LegacyProtocolKick;
 
 import net.md_5.bungee.api.chat.TextComponent;
@@ -56,8 +60,16 @@ import java.util.logging.Level;
 public class ProtocolHandshakeListener extends AbstractHandshakeListener {
     static boolean isLegacyProtocolLib = false; // Before 5.x series.
 
-    public ProtocolHandshakeListener(BungeeGuardBackend plugin, TokenStore tokenStore) {
-        super(plugin, tokenStore);
+    private final HandshakeDecoder decoder;
+
+    public static void register(BungeeGuardBackendPlugin plugin, TokenStore tokenStore, LockdownMonitor lockdown, HostBlocklist blocklist, HandshakeDecoder decoder) {
+        ProtocolHandshakeListener listener = new ProtocolHandshakeListener(plugin, tokenStore, lockdown, blocklist, decoder);
+        listener.registerAdapter(plugin);
+    }
+
+    public ProtocolHandshakeListener(BungeeGuardBackend plugin, TokenStore tokenStore, LockdownMonitor lockdown, HostBlocklist blocklist, HandshakeDecoder decoder) {
+        super(plugin, tokenStore, lockdown, blocklist);
+        this.decoder = decoder;
     }
 
     public void registerAdapter(Plugin plugin) {
@@ -87,39 +99,45 @@ public class ProtocolHandshakeListener extends AbstractHandshakeListener {
                 return;
             }
 
+            Player player = event.getPlayer();
+            InetSocketAddress address = player.getAddress();
+            String host = address == null ? null : address.getHostString();
+
+            if (ProtocolHandshakeListener.this.isBlocked(host)) {
+                // recently denied by another server on this host
+                disconnect(player, packet, null);
+                return;
+            }
+
             String handshake = packet.getStrings().read(0);
-            BungeeCordHandshake decoded = BungeeCordHandshake.decodeAndVerify(handshake, ProtocolHandshakeListener.this.tokenStore);
+            BungeeCordHandshake decoded = ProtocolHandshakeListener.this.decoder.decode(handshake, ProtocolHandshakeListener.this.tokenStore);
 
             if (decoded instanceof BungeeCordHandshake.Fail) {
-                String ip = "null";
-                Player player = event.getPlayer();
-                InetSocketAddress address = player.getAddress();
-                if (address != null) {
-                    ip = address.getHostString();
-                    if (ip.length() > 15) {
-                        ip = BungeeCordHandshake.encodeBase64(ip);
-                    }
-                }
                 BungeeCordHandshake.Fail fail = (BungeeCordHandshake.Fail) decoded;
-                this.plugin.getLogger().warning("Denying connection from " + ip + " - " + fail.describeConnection() + " - reason: " + fail.reason().name());
+                ProtocolHandshakeListener.this.recordBlocklistDenial(host);
 
                 String kickMessage;
-                if (fail.reason() == BungeeCordHandshake.Fail.Reason.INVALID_HANDSHAKE) {
-                    kickMessage = ProtocolHandshakeListener.this.noDataKickMessage;
+                if (ProtocolHandshakeListener.this.lockdown.recordDenial()) {
+                    // in lockdown: don't waste time telling the client why
+                    kickMessage = null;
                 } else {
-                    kickMessage = ProtocolHandshakeListener.this.invalidTokenKickMessage;
-                }
+                    String ip = "null";
+                    if (host != null) {
+                        ip = host;
+                        if (ip.length() > 15) {
+                            ip = BungeeCordHandshake.encodeBase64(ip);
+                        }
+                    }
+                    this.plugin.getLogger().log(Level.WARNING, "Denying connection from " + ip + " - " + fail.describeConnection() + " - reason: " + fail.reason().name(), fail.cause());
 
-                try {
-                    closeConnection(player, kickMessage);
-                } catch (Exception e) {
-                    this.plugin.getLogger().log(Level.SEVERE, "An error occurred while closing connection for " + player, e);
+                    if (fail.reason() == BungeeCordHandshake.Fail.Reason.INVALID_HANDSHAKE) {
+                        kickMessage = ProtocolHandshakeListener.this.noDataKickMessage;
+                    } else {
+                        kickMessage = ProtocolHandshakeListener.this.invalidTokenKickMessage;
+                    }
                 }
 
-                // just in-case the connection didn't close, screw up the hostname
-                // so Spigot can't pick up anything that might've been spoofed in nms.HandshakeListener
-                packet.getStrings().write(0, "null");
-
+                disconnect(player, packet, kickMessage);
                 return;
             }
 
@@ -128,17 +146,31 @@ public class ProtocolHandshakeListener extends AbstractHandshakeListener {
             BungeeCordHandshake.Success data = (BungeeCordHandshake.Success) decoded;
             packet.getStrings().write(0, data.encode());
         }
+
+        private void disconnect(Player player, PacketContainer packet, String kickMessage) {
+            try {
+                closeConnection(player, kickMessage);
+            } catch (Exception e) {
+                this.plugin.getLogger().log(Level.SEVERE, "An error occurred while closing connection for " + player, e);
+            }
+
+            // just in-case the connection didn't close, screw up the hostname
+            // so Spigot can't pick up anything that might've been spoofed in nms.HandshakeListener
+            packet.getStrings().write(0, "null");
+        }
     }
 
     private static void closeConnection(Player player, String kickMessage) throws Exception {
-        WrappedChatComponent component = WrappedChatComponent.fromJson(ComponentSerializer.toString(TextComponent.fromLegacyText(kickMessage)));
+        if (kickMessage != null) {
+            WrappedChatComponent component = WrappedChatComponent.fromJson(ComponentSerializer.toString(TextComponent.fromLegacyText(kickMessage)));
 
-        PacketContainer packet = new PacketContainer(PacketType.Login.Server.DISCONNECT);
-        packet.getModifier().writeDefaults();
-        packet.getChatComponents().write(0, component);
+            PacketContainer packet = new PacketContainer(PacketType.Login.Server.DISCONNECT);
+            packet.getModifier().writeDefaults();
+            packet.getChatComponents().write(0, component);
 
-        // send custom disconnect message to client
-        ProtocolLibrary.getProtocolManager().sendServerPacket(player, packet);
+            // send custom disconnect message to client
+            ProtocolLibrary.getProtocolManager().sendServerPacket(player, packet);
+        }
 
         if (isLegacyProtocolLib) {
             LegacyProtocolKick.kick(player);
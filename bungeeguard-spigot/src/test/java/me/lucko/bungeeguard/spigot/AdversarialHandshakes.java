@@ -0,0 +1,187 @@
+/*
+ * This file is part of BungeeGuard, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.bungeeguard.spigot;
+
+import me.lucko.bungeeguard.backend.TokenStore;
+
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates handshakes for testing, both realistic and adversarial.
+ */
+final class AdversarialHandshakes {
+
+    /** The token allowed by {@link TestBackend}. */
+    static final String TOKEN = "test-token";
+
+    private static final String PREFIX = "localhost\0" + "127.0.0.1\0" + "0123456789abcdef0123456789abcdef\0";
+    /** The space left for the properties in a handshake within the length limit. */
+    static final int PROPERTIES_ROOM = BungeeCordHandshake.HANDSHAKE_LENGTH_LIMIT - PREFIX.length();
+
+    /** The decoders under test, by name. */
+    static final Map<String, HandshakeDecoder> DECODERS;
+
+    static {
+        Map<String, HandshakeDecoder> decoders = new LinkedHashMap<>();
+        decoders.put("legacy", HandshakeDecoder.LEGACY);
+        decoders.put("indexed", IndexedHandshakeDecoder.INSTANCE);
+        DECODERS = Collections.unmodifiableMap(decoders);
+    }
+
+    private static final String BASE64_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    /**
+     * The shapes of properties JSON which are expensive to parse.
+     */
+    enum Shape {
+        /** Arrays nested as deeply as possible. */
+        DEEP_NESTING,
+        /** As many empty objects as possible. */
+        TINY_OBJECTS,
+        /** A string made up entirely of escape sequences. */
+        ESCAPES,
+        /** A single long string. */
+        LONG_STRING,
+        /** A single long number. */
+        LONG_LITERAL,
+        /** As many numbers as possible. */
+        MANY_VALUES,
+        /** Realistic properties, cut off part way through. */
+        TRUNCATED
+    }
+
+    private AdversarialHandshakes() {
+
+    }
+
+    static String handshake(String propertiesJson) {
+        return PREFIX + propertiesJson;
+    }
+
+    static String property(String name, String value, String signature) {
+        String json = "{\"name\":\"" + name + "\",\"value\":\"" + value + "\"";
+        if (signature != null) {
+            json += ",\"signature\":\"" + signature + "\"";
+        }
+        return json + "}";
+    }
+
+    /**
+     * Generates random base64, as serialized by Gson - which escapes the '=' padding as a unicode escape.
+     *
+     * @param random the random
+     * @param bytes the number of bytes the base64 encodes
+     * @return the base64
+     */
+    static String gsonBase64(Random random, int bytes) {
+        int padding = (3 - bytes % 3) % 3;
+        int chars = (bytes + 2) / 3 * 4 - padding;
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < chars; i++) {
+            sb.append(BASE64_CHARS.charAt(random.nextInt(BASE64_CHARS.length())));
+        }
+        for (int i = 0; i < padding; i++) {
+            sb.append("\\u003d");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Generates the properties of a typical player, with skin textures and a token.
+     *
+     * @param random the random
+     * @param compactToken if the token should be in its compact form
+     * @return the properties JSON
+     */
+    static String realisticProperties(Random random, boolean compactToken) {
+        // the textures value is a base64 encoded JSON object, the signature a 4096-bit RSA signature
+        String textures = property("textures", gsonBase64(random, 250 + random.nextInt(200)), gsonBase64(random, 512));
+        String token = compactToken
+                ? property(BungeeCordHandshake.COMPACT_TOKEN_NAME, Base64.getUrlEncoder().withoutPadding().encodeToString(TokenStore.compact(TOKEN)), null)
+                : property(BungeeCordHandshake.BUNGEEGUARD_TOKEN_NAME, TOKEN, "");
+        return "[" + textures + "," + token + "]";
+    }
+
+    /**
+     * Generates properties JSON of the given shape.
+     *
+     * @param shape the shape
+     * @param size the approximate length of the JSON, at most {@link #PROPERTIES_ROOM}
+     * @param random the random
+     * @return the properties JSON
+     */
+    static String generate(Shape shape, int size, Random random) {
+        StringBuilder sb = new StringBuilder();
+        switch (shape) {
+            case DEEP_NESTING:
+                for (int i = 0; i < size / 2; i++) {
+                    sb.append('[');
+                }
+                for (int i = 0; i < size / 2; i++) {
+                    sb.append(']');
+                }
+                return sb.toString();
+            case TINY_OBJECTS:
+                sb.append('[');
+                for (int i = 0; i < Math.max(1, (size - 2) / 3); i++) {
+                    sb.append(i == 0 ? "{}" : ",{}");
+                }
+                return sb.append(']').toString();
+            case ESCAPES:
+                for (int i = 0; i < Math.max(0, (size - 40) / 2); i++) {
+                    sb.append("\\\"");
+                }
+                return "[" + property("textures", sb.toString(), null) + "]";
+            case LONG_STRING:
+                for (int i = 0; i < Math.max(0, size - 40); i++) {
+                    sb.append('A');
+                }
+                return "[" + property("textures", sb.toString(), null) + "]";
+            case LONG_LITERAL:
+                sb.append('[');
+                for (int i = 0; i < Math.max(1, size - 2); i++) {
+                    sb.append('1');
+                }
+                return sb.append(']').toString();
+            case MANY_VALUES:
+                sb.append('[');
+                for (int i = 0; i < Math.max(1, (size - 1) / 2); i++) {
+                    sb.append(i == 0 ? "1" : ",1");
+                }
+                return sb.append(']').toString();
+            case TRUNCATED:
+                String properties = realisticProperties(random, false);
+                return properties.substring(0, Math.min(size, properties.length() - 1));
+            default:
+                throw new AssertionError(shape);
+        }
+    }
+}
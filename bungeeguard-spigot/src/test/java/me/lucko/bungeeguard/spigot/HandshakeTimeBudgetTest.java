@@ -0,0 +1,138 @@
+/*
+ * This file is part of BungeeGuard, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.bungeeguard.spigot;
+
+import me.lucko.bungeeguard.backend.TokenStore;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Searches randomly generated adversarial handshakes (within the length limit) for the
+ * slowest to decode, and checks they are all decoded within a time budget.
+ */
+public class HandshakeTimeBudgetTest {
+
+    /** The maximum time to decode a single handshake, once warmed up. */
+    private static final long TIME_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    /** The number of random handshakes to search. */
+    private static final int CANDIDATES = 2000;
+    /** The number of the slowest handshakes to measure more carefully. */
+    private static final int SLOWEST = 10;
+    /** The number of times to decode each of the slowest handshakes. */
+    private static final int REPETITIONS = 51;
+
+    private final TokenStore tokenStore = TestBackend.tokenStore();
+
+    @Test
+    public void slowestHandshakesAreWithinBudget() {
+        for (Map.Entry<String, HandshakeDecoder> decoder : AdversarialHandshakes.DECODERS.entrySet()) {
+            Candidate slowest = findSlowest(decoder.getValue());
+            assertTrue(slowest.nanos <= TIME_BUDGET_NANOS, decoder.getKey() + ": slowest handshake " +
+                    slowest.description + " took " + slowest.nanos + "ns (budget " + TIME_BUDGET_NANOS + "ns)");
+        }
+    }
+
+    /**
+     * Searches the random handshakes for the slowest to decode.
+     *
+     * @param decoder the decoder
+     * @return the slowest handshake, with its median decode time
+     */
+    private Candidate findSlowest(HandshakeDecoder decoder) {
+        Random random = new Random(0x42474221L);
+        AdversarialHandshakes.Shape[] shapes = AdversarialHandshakes.Shape.values();
+
+        List<Candidate> candidates = new ArrayList<>();
+        for (int i = 0; i < CANDIDATES; i++) {
+            AdversarialHandshakes.Shape shape = shapes[random.nextInt(shapes.length)];
+            int size = random.nextInt(AdversarialHandshakes.PROPERTIES_ROOM + 1);
+            candidates.add(new Candidate(shape.name() + " (" + size + ")", AdversarialHandshakes.handshake(AdversarialHandshakes.generate(shape, size, random))));
+        }
+        for (int i = 0; i < 100; i++) {
+            candidates.add(new Candidate("realistic", AdversarialHandshakes.handshake(AdversarialHandshakes.realisticProperties(random, (i & 1) == 0))));
+        }
+
+        // warm up, so the search measures compiled code
+        for (int i = 0; i < 5; i++) {
+            for (Candidate candidate : candidates) {
+                decoder.decode(candidate.handshake, this.tokenStore);
+            }
+        }
+
+        for (Candidate candidate : candidates) {
+            candidate.nanos = measure(decoder, candidate.handshake, 3);
+        }
+        candidates.sort(Comparator.comparingLong((Candidate c) -> c.nanos).reversed());
+
+        // re-measure the slowest more carefully, as the search is noisy
+        List<Candidate> slowest = candidates.subList(0, SLOWEST);
+        for (Candidate candidate : slowest) {
+            candidate.nanos = measure(decoder, candidate.handshake, REPETITIONS);
+        }
+        return Collections.max(slowest, Comparator.comparingLong((Candidate c) -> c.nanos));
+    }
+
+    /**
+     * Measures the median time taken to decode a handshake.
+     *
+     * @param decoder the decoder
+     * @param handshake the handshake
+     * @param repetitions the number of times to decode it
+     * @return the median time, in nanoseconds
+     */
+    private long measure(HandshakeDecoder decoder, String handshake, int repetitions) {
+        long[] times = new long[repetitions];
+        for (int i = 0; i < repetitions; i++) {
+            long start = System.nanoTime();
+            decoder.decode(handshake, this.tokenStore);
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[repetitions / 2];
+    }
+
+    private static final class Candidate {
+        private final String description;
+        private final String handshake;
+        private long nanos;
+
+        Candidate(String description, String handshake) {
+            this.description = description;
+            this.handshake = handshake;
+        }
+    }
+}
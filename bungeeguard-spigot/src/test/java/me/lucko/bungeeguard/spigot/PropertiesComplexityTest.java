@@ -0,0 +1,92 @@
+/*
+ * This file is part of BungeeGuard, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.bungeeguard.spigot;
+
+import me.lucko.bungeeguard.backend.TokenStore;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PropertiesComplexityTest {
+
+    private final TokenStore tokenStore = TestBackend.tokenStore();
+
+    @Test
+    public void realisticPropertiesPassEveryLimit() {
+        Random random = new Random(0);
+        for (int i = 0; i < 100; i++) {
+            String properties = AdversarialHandshakes.realisticProperties(random, (i & 1) == 0);
+            String handshake = AdversarialHandshakes.handshake(properties);
+            assertTrue(handshake.length() <= BungeeCordHandshake.HANDSHAKE_LENGTH_LIMIT, properties);
+            assertNull(BungeeCordHandshake.checkPropertiesComplexity(properties), properties);
+
+            for (Map.Entry<String, HandshakeDecoder> decoder : AdversarialHandshakes.DECODERS.entrySet()) {
+                BungeeCordHandshake result = decoder.getValue().decode(handshake, this.tokenStore);
+                BungeeCordHandshake.Success success = assertInstanceOf(BungeeCordHandshake.Success.class, result, decoder.getKey() + ": " + properties);
+                assertTrue(success.propertiesJson().contains("\"textures\""), decoder.getKey());
+                assertFalse(success.propertiesJson().contains(BungeeCordHandshake.BUNGEEGUARD_TOKEN_NAME), decoder.getKey());
+                assertFalse(success.propertiesJson().contains("\"" + BungeeCordHandshake.COMPACT_TOKEN_NAME + "\""), decoder.getKey());
+            }
+        }
+    }
+
+    @Test
+    public void adversarialShapesAreRejected() {
+        Random random = new Random(0);
+        for (AdversarialHandshakes.Shape shape : AdversarialHandshakes.Shape.values()) {
+            String properties = AdversarialHandshakes.generate(shape, AdversarialHandshakes.PROPERTIES_ROOM, random);
+            String handshake = AdversarialHandshakes.handshake(properties);
+            assertTrue(handshake.length() <= BungeeCordHandshake.HANDSHAKE_LENGTH_LIMIT, shape.name());
+
+            if (shape != AdversarialHandshakes.Shape.TRUNCATED) {
+                // rejected by the cheap scan, before Gson sees it
+                assertNotNull(BungeeCordHandshake.checkPropertiesComplexity(properties), shape.name());
+            }
+
+            for (Map.Entry<String, HandshakeDecoder> decoder : AdversarialHandshakes.DECODERS.entrySet()) {
+                BungeeCordHandshake result = decoder.getValue().decode(handshake, this.tokenStore);
+                BungeeCordHandshake.Fail fail = assertInstanceOf(BungeeCordHandshake.Fail.class, result, decoder.getKey() + ": " + shape.name());
+                assertEquals(BungeeCordHandshake.Fail.Reason.INVALID_HANDSHAKE, fail.reason(), decoder.getKey() + ": " + shape.name());
+            }
+        }
+    }
+
+    @Test
+    public void escapesWithinLimitAreAccepted() {
+        // a handful of escapes (e.g. base64 padding) must never be a problem
+        String properties = "[" + AdversarialHandshakes.property("textures", "abc\\u003d\\u003d\\\"\\\\", "sig\\u003d") + "]";
+        assertNull(BungeeCordHandshake.checkPropertiesComplexity(properties));
+    }
+}
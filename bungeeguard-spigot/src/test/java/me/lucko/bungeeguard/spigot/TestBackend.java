@@ -0,0 +1,97 @@
+/*
+ * This file is part of BungeeGuard, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.bungeeguard.spigot;
+
+import me.lucko.bungeeguard.backend.BungeeGuardBackend;
+import me.lucko.bungeeguard.backend.TokenStore;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link BungeeGuardBackend} which allows only {@link AdversarialHandshakes#TOKEN},
+ * and uses the defaults for everything else.
+ */
+final class TestBackend implements BungeeGuardBackend {
+
+    static TokenStore tokenStore() {
+        TokenStore tokenStore = new TokenStore(new TestBackend());
+        tokenStore.load();
+        return tokenStore;
+    }
+
+    @Override
+    public String getMessage(String key) {
+        return key;
+    }
+
+    @Override
+    public List<String> getTokens() {
+        return Collections.singletonList(AdversarialHandshakes.TOKEN);
+    }
+
+    @Override
+    public String getString(String key, String def) {
+        return def;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean def) {
+        return def;
+    }
+
+    @Override
+    public int getInt(String key, int def) {
+        return def;
+    }
+
+    @Override
+    public List<String> getStringList(String key) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void logInfo(String message) {
+
+    }
+
+    @Override
+    public void logWarning(String message) {
+
+    }
+
+    @Override
+    public Path getDataDirectory() {
+        return Paths.get(".");
+    }
+
+    @Override
+    public void reloadConfig() {
+
+    }
+}
@@ -29,7 +29,10 @@ import com.google.common.reflect.TypeToken;
 import com.google.inject.Inject;
 
 import me.lucko.bungeeguard.backend.BungeeGuardBackend;
+import me.lucko.bungeeguard.backend.LockdownMonitor;
+import me.lucko.bungeeguard.backend.StartupBenchmark;
 import me.lucko.bungeeguard.backend.TokenStore;
+import me.lucko.bungeeguard.backend.Warmup;
 
 import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.configurate.hocon.HoconConfigurationLoader;
@@ -47,6 +50,7 @@ import org.spongepowered.api.command.spec.CommandSpec;
 import org.spongepowered.api.config.DefaultConfig;
 import org.spongepowered.api.event.Listener;
 import org.spongepowered.api.event.game.state.GamePreInitializationEvent;
+import org.spongepowered.api.event.game.state.GameStoppingServerEvent;
 import org.spongepowered.api.plugin.Plugin;
 import org.spongepowered.api.text.Text;
 import org.spongepowered.api.text.format.TextColors;
@@ -55,6 +59,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.List;
 
@@ -70,6 +75,8 @@ public final class BungeeGuardSponge implements BungeeGuardBackend, CommandExecu
     private final Logger logger;
     private final Path configPath;
     private final TokenStore tokenStore;
+    private final LockdownMonitor lockdown;
+    private final Warmup warmup;
 
     private ConfigurationNode config;
 
@@ -78,10 +85,14 @@ public final class BungeeGuardSponge implements BungeeGuardBackend, CommandExecu
         this.logger = logger;
         this.configPath = configPath;
         this.tokenStore = new TokenStore(this);
+        this.lockdown = new LockdownMonitor(this);
+        this.warmup = new Warmup(this);
     }
 
     @Listener
     public void onInitialization(GamePreInitializationEvent event) {
+        StartupBenchmark benchmark = StartupBenchmark.start();
+
         if (!Files.exists(this.configPath)) {
             try (InputStream in = getClass().getClassLoader().getResourceAsStream("bungeeguard.conf")) {
                 Files.copy(in, this.configPath);
@@ -93,18 +104,62 @@ public final class BungeeGuardSponge implements BungeeGuardBackend, CommandExecu
         this.reloadConfig();
 
         this.tokenStore.load();
+        this.lockdown.load();
 
         CommandSpec command = CommandSpec.builder()
                 .description(Text.of("Reloads the configuration"))
                 .permission("bungeeguard.reload")
-                .arguments(GenericArguments.optional(
-                        GenericArguments.literal(Text.of("reload"), "reload")
-                ))
+                .arguments(GenericArguments.optional(GenericArguments.firstParsing(
+                        GenericArguments.literal(Text.of("reload"), "reload"),
+                        GenericArguments.literal(Text.of("status"), "status")
+                )))
                 .executor(this)
                 .build();
 
         Sponge.getCommandManager().register(this, command, "bungeeguard");
-        Sponge.getEventManager().registerListeners(this, new HandshakeListener(this, this.tokenStore, this.logger));
+        Sponge.getEventManager().registerListeners(this, new HandshakeListener(this, this.tokenStore, this.lockdown, this.logger));
+
+        this.logger.info(benchmark.describe("Sponge"));
+
+        int iterations = getBoolean("warmup.enabled", true) ? getInt("warmup.iterations", 5000) : 0;
+        startWarmup(iterations);
+    }
+
+    private void startWarmup(int iterations) {
+        // Sponge decodes the handshake itself, so there's only the token check to warm up.
+        // cycle through the same mix of plain & compact tokens the listener sees
+        List<String> tokens = getTokens();
+        String token = tokens.isEmpty() ? "" : tokens.get(0);
+        String invalidToken = token + "-invalid";
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String compactToken = encoder.encodeToString(TokenStore.compact(token));
+        String invalidCompactToken = encoder.encodeToString(TokenStore.compact(invalidToken));
+        String malformedCompactToken = compactToken.substring(1) + "!";
+
+        this.warmup.start(iterations, i -> {
+            switch (i % 5) {
+                case 0:
+                    this.tokenStore.isAllowed(token);
+                    break;
+                case 1:
+                    this.tokenStore.isAllowed(invalidToken);
+                    break;
+                case 2:
+                    this.tokenStore.isAllowedCompact(compactToken);
+                    break;
+                case 3:
+                    this.tokenStore.isAllowedCompact(invalidCompactToken);
+                    break;
+                default:
+                    this.tokenStore.isAllowedCompact(i % 2 == 0 ? malformedCompactToken : compactToken.substring(1));
+                    break;
+            }
+        });
+    }
+
+    @Listener
+    public void onServerStopping(GameStoppingServerEvent event) {
+        this.tokenStore.shutdown();
     }
 
     @Override
@@ -114,15 +169,26 @@ public final class BungeeGuardSponge implements BungeeGuardBackend, CommandExecu
             return CommandResult.empty();
         }
 
+        if (args.hasAny(Text.of("status"))) {
+            src.sendMessage(Text.of(TextColors.RED, "BungeeGuard status:"));
+            src.sendMessage(Text.of(TextColors.GRAY, this.warmup.describe()));
+            src.sendMessage(Text.of(TextColors.GRAY, this.tokenStore.getEphemeralTokens().describe()));
+            src.sendMessage(Text.of(TextColors.GRAY, this.lockdown.describe()));
+
+            return CommandResult.success();
+        }
+
         if (!args.hasAny(Text.of("reload"))) {
             src.sendMessage(Text.of(TextColors.RED, "Running BungeeGuard v" + BungeeGuardVersion.VERSION));
             src.sendMessage(Text.of(TextColors.GRAY, "Use '/bungeeguard reload' to reload the configuration."));
+            src.sendMessage(Text.of(TextColors.GRAY, "Use '/bungeeguard status' to view the current status."));
 
             return CommandResult.empty();
         }
 
         try {
             this.tokenStore.reload();
+            this.lockdown.load();
         } catch (Exception e) {
             this.logger.error("An error occurred while reloading tokens", e);
 
@@ -151,6 +217,46 @@ public final class BungeeGuardSponge implements BungeeGuardBackend, CommandExecu
         }
     }
 
+    @Override
+    public List<String> getStringList(String key) {
+        try {
+            return this.config.getNode((Object[]) key.split("\\.")).getList(TypeToken.of(String.class));
+        } catch (ObjectMappingException e) {
+            this.logger.error("Unable to load " + key, e);
+            return Collections.emptyList();
+        }
+    }
+
+    @Override
+    public String getString(String key, String def) {
+        return this.config.getNode((Object[]) key.split("\\.")).getString(def);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean def) {
+        return this.config.getNode((Object[]) key.split("\\.")).getBoolean(def);
+    }
+
+    @Override
+    public int getInt(String key, int def) {
+        return this.config.getNode((Object[]) key.split("\\.")).getInt(def);
+    }
+
+    @Override
+    public Path getDataDirectory() {
+        return this.configPath.getParent();
+    }
+
+    @Override
+    public void logInfo(String message) {
+        this.logger.info(message);
+    }
+
+    @Override
+    public void logWarning(String message) {
+        this.logger.warn(message);
+    }
+
     @Override
     public void reloadConfig() {
         try {
@@ -26,6 +26,7 @@
 package me.lucko.bungeeguard.sponge;
 
 import me.lucko.bungeeguard.backend.BungeeGuardBackend;
+import me.lucko.bungeeguard.backend.LockdownMonitor;
 import me.lucko.bungeeguard.backend.TokenStore;
 import me.lucko.bungeeguard.backend.listener.AbstractHandshakeListener;
 
@@ -46,8 +47,10 @@ public class HandshakeListener extends AbstractHandshakeListener {
     private final Text invalidTokenKickText;
     private final Logger logger;
 
-    public HandshakeListener(BungeeGuardBackend plugin, TokenStore tokenStore, Logger logger) {
-        super(plugin, tokenStore);
+    public HandshakeListener(BungeeGuardBackend plugin, TokenStore tokenStore, LockdownMonitor lockdown, Logger logger) {
+        // no host blocklist: with ip forwarding enabled, Sponge has already replaced the connection
+        // address with the one claimed by the handshake, so the real source address isn't known
+        super(plugin, tokenStore, lockdown, null);
         this.logger = logger;
         this.noDataKickText = TextSerializers.FORMATTING_CODE.deserialize(this.noDataKickMessage);
         this.invalidTokenKickText = TextSerializers.FORMATTING_CODE.deserialize(this.invalidTokenKickMessage);
@@ -57,15 +60,33 @@ public class HandshakeListener extends AbstractHandshakeListener {
     public void onClientAuth(ClientConnectionEvent.Auth e) {
         GameProfile profile = e.getProfile();
         Collection<ProfileProperty> tokens = profile.getPropertyMap().get("bungeeguard-token");
+        Collection<ProfileProperty> compactTokens = profile.getPropertyMap().get("bgt");
 
         String bungeeGuardToken = null;
+        boolean compact = false;
 
         for (Iterator<ProfileProperty> iterator = tokens.iterator(); iterator.hasNext(); ) {
             bungeeGuardToken = iterator.next().getValue();
             iterator.remove();
         }
+        for (Iterator<ProfileProperty> iterator = compactTokens.iterator(); iterator.hasNext(); ) {
+            bungeeGuardToken = iterator.next().getValue();
+            compact = true;
+            iterator.remove();
+        }
+
+        boolean allowed = bungeeGuardToken != null && (compact
+                ? this.tokenStore.isAllowedCompact(bungeeGuardToken)
+                : this.tokenStore.isAllowed(bungeeGuardToken));
+
+        if (!allowed) {
+            if (this.lockdown.recordDenial()) {
+                // in lockdown: close the connection without a disconnect message
+                e.setCancelled(true);
+                e.setMessageCancelled(true);
+                return;
+            }
 
-        if (bungeeGuardToken == null || !this.tokenStore.isAllowed(bungeeGuardToken)) {
             String connectionDescription = profile.getUniqueId() + " @ " + e.getConnection().getAddress().getHostString();
             String reason = bungeeGuardToken == null ? "No Token" : "Invalid token";
 